@@ -0,0 +1,218 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: AdaptiveBaseline.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.dynatrace.diagnostics.pdk.Status;
+
+/**
+ * Rolling baseline of the response complete time and the HTTP status code of one UrlMonitor, which decides how much
+ * work an execution does. While the results stay within the baseline, GET requests are downgraded to light checks,
+ * with a full GET including content verification every few executions. A light check is a GET conditional on the ETag
+ * and Last-Modified of the last full check, so a changed content is sent and checked fully right away, or a HEAD request
+ * if the target sends neither. A deviation (failure, other status code, slower response, failed verification)
+ * escalates to full checks on every execution, until a few full checks in a row are within the baseline again. Targets
+ * which don't answer HEAD like GET are only checked fully.
+ */
+final class AdaptiveBaseline {
+
+	/** a full check, while the baseline is learned or periodically while stable. */
+	static final int MODE_FULL = 0;
+	/** a light check, downgraded to a conditional GET answered with 304 or to HEAD. */
+	static final int MODE_LIGHT = 1;
+	/** a full check after a deviation. */
+	static final int MODE_ESCALATED = 2;
+
+	/** the weight of a new sample in the moving average. */
+	private static final double ALPHA = 0.2;
+	/** the number of samples needed before response times are compared with the baseline. */
+	private static final int MIN_SAMPLES = 5;
+	private static final double DEVIATION_STDDEVS = 3;
+	/** the minimum deviation relative to the average, so jitter of very stable targets doesn't escalate. */
+	private static final double MIN_DEVIATION_RATIO = 0.5;
+	/** the number of full checks in a row within the baseline to leave the escalated mode. */
+	private static final int STABLE_CHECKS = 3;
+	/** the number of light checks with another status code confirmed by full checks, after which HEAD isn't used. */
+	private static final int LIGHT_MISMATCHES = 2;
+	private static final int HTTP_CODE_OK = 200;
+	private static final int HTTP_CODE_MULTIPLE_CHOICES = 300;
+	private static final int HTTP_CODE_NOT_MODIFIED = 304;
+	private static final int HTTP_CODE_BAD_REQUEST = 400;
+	private static final int HTTP_CODE_METHOD_NOT_ALLOWED = 405;
+	private static final int HTTP_CODE_NOT_IMPLEMENTED = 501;
+
+	private final int fullCheckInterval;
+	/** the response times of full and light checks, HEAD responses don't include the content. */
+	private final MovingAverage fullTimes = new MovingAverage();
+	private final MovingAverage lightTimes = new MovingAverage();
+	/** the results of the last full check; the status code is 0 until a full check succeeded with 2xx or 3xx. */
+	private int httpStatusCode = 0;
+	private boolean verified = false;
+
+	private boolean escalated = false;
+	private int stableChecks = 0;
+	private int executionsSinceFullCheck = 0;
+	/** true if the last escalation was caused by a light check responding with another status code. */
+	private boolean lightStatusDeviated = false;
+	/** the number of light checks in a row with another status code, which full checks didn't confirm. */
+	private int lightMismatches = 0;
+	/** true if HEAD requests are answered differently than GET requests, e.g. with 405 Method Not Allowed. */
+	private boolean lightUnsupported = false;
+	/** the validators of the content of the last full check with 2xx; null if not sent by the target. */
+	private String entityTag;
+	private String lastModified;
+	/** true if the target sends the unchanged content for conditional GET requests. */
+	private boolean conditionsIgnored = false;
+
+	/**
+	 * @param fullCheckInterval do a full check every n executions while stable.
+	 */
+	AdaptiveBaseline(int fullCheckInterval) {
+		this.fullCheckInterval = Math.max(fullCheckInterval, 1);
+	}
+
+	/**
+	 * @return the mode of the next execution.
+	 */
+	int nextMode() {
+		if (escalated)
+			return MODE_ESCALATED;
+		if (lightUnsupported || httpStatusCode == 0 || !fullTimes.isWarm()
+				|| executionsSinceFullCheck + 1 >= fullCheckInterval)
+			return MODE_FULL;
+		return MODE_LIGHT;
+	}
+
+	/**
+	 * @return the headers making the GET of a light check conditional on the content of the last full check; null if the
+	 *         light check is done with HEAD.
+	 */
+	Map<String, String> getConditions() {
+		if (conditionsIgnored || (entityTag == null && lastModified == null))
+			return null;
+		Map<String, String> conditions = new LinkedHashMap<String, String>();
+		if (entityTag != null)
+			conditions.put("If-None-Match", entityTag);
+		if (lastModified != null)
+			conditions.put("If-Modified-Since", lastModified);
+		return conditions;
+	}
+
+	/**
+	 * keeps the validators of the content of a full check for the following light checks.
+	 *
+	 * @param entityTag the ETag of the response; null if not sent.
+	 * @param lastModified the Last-Modified date of the response; null if not sent.
+	 * @param conditional true if the request was conditional, see {@link #getConditions()}.
+	 */
+	void updateValidators(int responseStatusCode, String entityTag, String lastModified, boolean conditional) {
+		if (responseStatusCode < HTTP_CODE_OK || responseStatusCode >= HTTP_CODE_MULTIPLE_CHOICES)
+			return;
+		// the content didn't change, but was sent again
+		if (conditional && equals(entityTag, this.entityTag) && equals(lastModified, this.lastModified))
+			conditionsIgnored = true;
+		this.entityTag = entityTag;
+		this.lastModified = lastModified;
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * adds the results of an execution to the baseline.
+	 *
+	 * @param mode the mode the execution was done in, see {@link #nextMode()}.
+	 * @return true if the execution deviated from the baseline and the following executions are escalated.
+	 */
+	boolean update(int mode, Status.StatusCode statusCode, MeasureCollector measureCollector) {
+		boolean light = mode == MODE_LIGHT;
+		boolean succeeded = statusCode == Status.StatusCode.Success;
+		int responseStatusCode = measureCollector.getHttpStatusCode();
+		if (light && succeeded && (responseStatusCode == HTTP_CODE_METHOD_NOT_ALLOWED
+				|| responseStatusCode == HTTP_CODE_NOT_IMPLEMENTED)) {
+			// the target rejects HEAD, which doesn't tell anything about GET
+			lightUnsupported = true;
+			return false;
+		}
+		long responseCompleteTime = measureCollector.getResponseCompleteTime();
+		// a conditional GET answered with 304 confirms the status of the last full check
+		boolean notModified = light && responseStatusCode == HTTP_CODE_NOT_MODIFIED;
+		boolean statusDeviated = httpStatusCode != 0 && !notModified && responseStatusCode != httpStatusCode;
+		boolean deviated = !succeeded || statusDeviated
+				|| (light ? lightTimes : fullTimes).isDeviation(responseCompleteTime)
+				|| (!light && httpStatusCode != 0 && measureCollector.isVerified() != verified);
+
+		// the baseline follows lasting changes, e.g. a slower release
+		if (succeeded)
+			(light ? lightTimes : fullTimes).add(responseCompleteTime);
+
+		if (light) {
+			executionsSinceFullCheck++;
+		} else {
+			executionsSinceFullCheck = 0;
+			// an error response isn't a baseline to compare with, the following full checks deviate until it's gone
+			if (succeeded && responseStatusCode >= HTTP_CODE_OK && responseStatusCode < HTTP_CODE_BAD_REQUEST) {
+				httpStatusCode = responseStatusCode;
+				verified = measureCollector.isVerified();
+			}
+		}
+		if (light && succeeded && !statusDeviated)
+			lightMismatches = 0;
+
+		if (deviated) {
+			escalated = true;
+			stableChecks = 0;
+			lightStatusDeviated = light && succeeded && statusDeviated;
+		} else if (escalated) {
+			// the full check confirming a light check with another status code is fine: HEAD may not be answered like
+			// GET, if this repeats, HEAD isn't used anymore
+			if (lightStatusDeviated && ++lightMismatches >= LIGHT_MISMATCHES)
+				lightUnsupported = true;
+			lightStatusDeviated = false;
+			if (++stableChecks >= STABLE_CHECKS)
+				escalated = false;
+		}
+		return deviated;
+	}
+
+	/**
+	 * Exponentially weighted moving average and variance of the response times in nanoseconds.
+	 */
+	private static final class MovingAverage {
+
+		private double average = 0;
+		private double variance = 0;
+		private int count = 0;
+
+		void add(long value) {
+			if (count++ == 0) {
+				average = value;
+				return;
+			}
+			double difference = value - average;
+			double increment = ALPHA * difference;
+			average += increment;
+			variance = (1 - ALPHA) * (variance + difference * increment);
+		}
+
+		boolean isWarm() {
+			return count >= MIN_SAMPLES;
+		}
+
+		/**
+		 * @return true if the value is slower than the average by more than the allowed deviation.
+		 */
+		boolean isDeviation(long value) {
+			if (!isWarm())
+				return false;
+			double allowed = Math.max(DEVIATION_STDDEVS * Math.sqrt(variance), MIN_DEVIATION_RATIO * average);
+			return value > average + allowed;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: AddressProbe.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dynatrace.diagnostics.httpclient.api.DynaTraceHttpClient;
+
+/**
+ * Probes one address of a host with a minimal HTTP/1.1 request on a connection of its own, sending the host name of the
+ * url in the Host header and as SNI. Used to check every address of a host, which resolves to several addresses (DNS
+ * round-robin, IPv4 and IPv6), while the http client only connects to one of them. Only the status line of the response
+ * is read, for Connect only the probe ends after connecting. Probes, which don't finish in time or can't be queued, are
+ * reported as failed.
+ */
+final class AddressProbe implements Callable<AddressProbe> {
+
+	private static final int MAX_THREADS = 16;
+	private static final int MAX_QUEUED = 256;
+	private static final int HTTP_CODE_SERVER_ERROR = 500;
+
+	/**
+	 * executes the probes of all monitors, threads are started on demand and stopped when idle. Probes exceeding the
+	 * queue are rejected.
+	 */
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "UrlMonitor address probe " + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private final InetAddress address;
+	private final URL url;
+	private final String method;
+	private final Map<String, String> headers;
+	private final DynaTraceHttpClient client;
+	private final int connectTimeout;
+	private final int socketTimeout;
+
+	/** the running probe; null if it was rejected. */
+	private Future<AddressProbe> future;
+	/** System.nanoTime() when the probe was started. */
+	private long started;
+	/** the socket of the running probe, closed to cancel it. */
+	private volatile Socket socket;
+	/** the results written by the probe, only read if it finished in time. */
+	private int httpStatusCode = 0;
+	private long firstResponseTime = 0;
+	private IOException error;
+	/** the reason, why the probe has no result; set by the monitor, which started the probe. */
+	private IOException abortion;
+
+	/**
+	 * @param method the request method, e.g. HEAD; null to only connect, including the TLS handshake for https.
+	 * @param headers additional request headers.
+	 * @param client the http client, whose certificate and host name verification is used.
+	 */
+	AddressProbe(InetAddress address, URL url, String method, Map<String, String> headers, DynaTraceHttpClient client,
+			int connectTimeout, int socketTimeout) {
+		this.address = address;
+		this.url = url;
+		this.method = method;
+		this.headers = headers;
+		this.client = client;
+		this.connectTimeout = connectTimeout;
+		this.socketTimeout = socketTimeout;
+	}
+
+	/**
+	 * starts the probes in the background, see {@link #await(List, long)}.
+	 */
+	static void start(List<AddressProbe> probes) {
+		for (AddressProbe probe : probes) {
+			probe.started = System.nanoTime();
+			try {
+				probe.future = executor.submit(probe);
+			} catch (RejectedExecutionException e) {
+				probe.abortion = new IOException("Too many address probes queued");
+			}
+		}
+	}
+
+	/**
+	 * waits until the probes are finished or the timeout elapsed. Probes, which are still queued or running, are
+	 * cancelled and closed.
+	 *
+	 * @param timeoutMillis the time a probe may take from its start.
+	 */
+	static void await(List<AddressProbe> probes, long timeoutMillis) throws InterruptedException {
+		long timeout = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		for (AddressProbe probe : probes) {
+			if (probe.future == null)
+				continue;
+			try {
+				probe.future.get(Math.max(probe.started + timeout - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				probe.cancel();
+			} catch (ExecutionException e) {
+				// call() doesn't throw
+				throw new IllegalStateException(e.getCause());
+			} catch (InterruptedException e) {
+				for (AddressProbe running : probes)
+					running.cancel();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * stops the probe, unless it already finished.
+	 */
+	private void cancel() {
+		if (future == null || future.isDone())
+			return;
+		future.cancel(false);
+		abortion = new SocketTimeoutException("Probe didn't finish in time");
+		closeSocket(socket);
+	}
+
+	@Override
+	public AddressProbe call() {
+		long start = System.nanoTime();
+		Socket socket = new Socket();
+		this.socket = socket;
+		try {
+			int port = UrlMonitor.getPort(url);
+			socket.connect(new InetSocketAddress(address, port), connectTimeout);
+			socket.setSoTimeout(socketTimeout);
+			if ("https".equals(url.getProtocol()))
+				this.socket = socket = TlsProbe.handshake(socket, UrlMonitor.getHostName(url), port, client).getSocket();
+			if (method != null) {
+				RawHttp.writeRequest(socket.getOutputStream(), method, RawHttp.getOriginForm(url),
+						RawHttp.getHostHeader(url), headers);
+				httpStatusCode = RawHttp.readStatusCode(new BufferedInputStream(socket.getInputStream()));
+			}
+			firstResponseTime = System.nanoTime() - start;
+		} catch (IOException e) {
+			error = e;
+		} finally {
+			closeSocket(socket);
+		}
+		return this;
+	}
+
+	private static void closeSocket(Socket socket) {
+		if (socket == null)
+			return;
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	InetAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return the status code of the response; 0 if the probe failed or didn't send a request.
+	 */
+	int getHttpStatusCode() {
+		return abortion != null ? 0 : httpStatusCode;
+	}
+
+	/**
+	 * @return the time from connecting until the status line arrived in nanoseconds; the time to connect if the probe
+	 *         didn't send a request.
+	 */
+	long getFirstResponseTime() {
+		return abortion != null ? 0 : firstResponseTime;
+	}
+
+	/**
+	 * @return the exception the probe failed with; null if a response was received.
+	 */
+	IOException getError() {
+		return abortion != null ? abortion : error;
+	}
+
+	/**
+	 * @return true if the address isn't reachable or responds with a server error.
+	 */
+	boolean isFailed() {
+		return getError() != null || getHttpStatusCode() >= HTTP_CODE_SERVER_ERROR;
+	}
+}
@@ -9,7 +9,11 @@ package com.dynatrace.diagnostics.plugin.urlmonitor;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.dynatrace.diagnostics.httpclient.api.enums.RequestType;
@@ -40,6 +44,7 @@ public class Config implements Migrator {
 	protected static final String CONFIG_USER_AGENT = "userAgent";
 	protected static final String CONFIG_HTTP_VERSION = "httpVersion";
 	protected static final String CONFIG_MAX_REDIRECTS = "maxRedirects";
+	protected static final String CONFIG_CACHE_PERMANENT_REDIRECTS = "cachePermanentRedirects";
 	protected static final String CONFIG_SOCKET_TIMEOUT = "socketTimeout";
 	protected static final String CONFIG_CONNECTION_TIMEOUT = "connectionTimeout";
 
@@ -62,26 +67,55 @@ public class Config implements Migrator {
 	protected static final String CONFIG_PROXY_USERNAME = "proxyUsername";
 	protected static final String CONFIG_PROXY_PASSWORD = "proxyPassword";
 	protected static final String CONFIG_PROXY_AUTH_PREEMPTIVE = "proxyAuthPreemptive";
+	protected static final String CONFIG_MEASURE_PROXY = "measureProxy";
 
 	protected static final String CONFIG_IGNORE_CERTIFICATE = "ignoreCertificate";
 
 	private static final String PROTOCOL_HTTPS = "https";
 	private static final String PROTOCOL_HTTP = "http";
 
+	private static final String METHOD_CONNECT_ONLY = "Connect only";
+
 	private static final String CONFIG_USE_CUSTOM_HEADER = "useCustomHeader";
 
 	private static final String CONFIG_CUSTOM_HEADER = "customHeaderList";
+
+	protected static final String CONFIG_SHARE_HTTP_CLIENT = "shareHttpClient";
+
+	protected static final String CONFIG_USE_TRANSACTION = "useTransaction";
+	protected static final String CONFIG_TRANSACTION_STEPS = "transactionSteps";
+
+	protected static final String CONFIG_USE_VALUE_EXTRACTION = "useValueExtraction";
+	protected static final String CONFIG_EXTRACT_VALUES = "extractValues";
+
+	protected static final String CONFIG_DNS_CACHE_TTL = "dnsCacheTtl";
+	protected static final String CONFIG_COLD_DNS = "coldDns";
+
+	protected static final String CONFIG_MEASURE_TLS = "measureTls";
+
+	protected static final String CONFIG_PROBE_ALL_ADDRESSES = "probeAllAddresses";
+
+	protected static final String CONFIG_USE_JOURNAL = "useJournal";
+	protected static final String CONFIG_JOURNAL_FILE = "journalFile";
+	protected static final String CONFIG_JOURNAL_CAPACITY = "journalCapacity";
+
+	protected static final String CONFIG_ADAPTIVE = "adaptive";
+	protected static final String CONFIG_ADAPTIVE_FULL_CHECK_INTERVAL = "adaptiveFullCheckInterval";
 	
 	
 
 	URL url;
 	// String method;
 	RequestType method;
+	/** only connect to the host (and do the TLS handshake), without sending a request. */
+	boolean connectOnly;
 	/** the postData sent with a post Request; null if no data should be sent. */
 	String postData;
 	String httpVersion;
 	String userAgent;
 	int maxRedirects;
+	/** request the target of permanent redirects directly in later executions. */
+	boolean cachePermanentRedirects;
 	Integer socketTimeout;
 	Integer connectionTimeout;
 	boolean tagging;
@@ -103,12 +137,46 @@ public class Config implements Migrator {
 	String proxyUsername;
 	String proxyPassword;
 	boolean proxyAuthPreemptive;
+	/** split the time spent at the proxy from the time of the origin server, only set if a proxy is used. */
+	boolean measureProxy;
 	long compareBytes;
 	//custom header
 	boolean useCustomHeader;
 	String customHeaderField;
 	String[] customHeaderArray;
 	HashMap customHeaderMap = new HashMap();
+	// share the http client with other monitors using equal client settings
+	boolean shareHttpClient;
+	// multi-step transaction
+	boolean useTransaction;
+	String transactionStepsField;
+	/** the steps of the transaction; null if no transaction is configured. */
+	List<TransactionStep> transactionSteps;
+	// extraction of numeric values out of the content
+	boolean useValueExtraction;
+	String extractValuesField;
+	/** the values to extract; null if no values should be extracted. */
+	ValueExtraction valueExtraction;
+	// host name resolution
+	/** the maximum age of cached addresses of the host in milliseconds. */
+	long dnsCacheTtl;
+	/** resolve the host on every execution, bypassing the {@link DnsCache}. */
+	boolean coldDns;
+	/** measure the TLS handshake and the certificate of the server, only set for https. */
+	boolean measureTls;
+	/** probe every address the host resolves to. */
+	boolean probeAllAddresses;
+	// local journal of the results
+	boolean useJournal;
+	/** the journal file; null if no journal is written. */
+	String journalFile;
+	/** the maximum number of executions kept in the journal. */
+	int journalCapacity;
+	// adaptive checks
+	/** downgrade GET requests to HEAD while the results are stable, only set for single GET requests. */
+	boolean adaptive;
+	/** do a full check every n executions while stable. */
+	int adaptiveFullCheckInterval;
 
 	/**
 	 * no arg contructor only needed, to act as MonitorEnvironmentMigrator.
@@ -135,6 +203,10 @@ public class Config implements Migrator {
 			method = RequestType.POST;
 		} else if ("HEAD".equalsIgnoreCase(methodString)) {
 			method = RequestType.HEAD;
+		} else if (METHOD_CONNECT_ONLY.equalsIgnoreCase(methodString)) {
+			// not sent, the probes of all addresses only connect as well
+			method = RequestType.HEAD;
+			connectOnly = true;
 		} else {
 			method = RequestType.GET;
 		}
@@ -154,6 +226,8 @@ public class Config implements Migrator {
 		}
 		maxRedirects = env.getConfigLong(CONFIG_MAX_REDIRECTS) == null ? 0
 				: env.getConfigLong(CONFIG_MAX_REDIRECTS).intValue();
+		cachePermanentRedirects = env.getConfigBoolean(CONFIG_CACHE_PERMANENT_REDIRECTS) == null ? false
+				: env.getConfigBoolean(CONFIG_CACHE_PERMANENT_REDIRECTS);
 		socketTimeout = env.getConfigLong(CONFIG_SOCKET_TIMEOUT) == null ? Integer.valueOf(0)
 				: Integer.valueOf(env.getConfigLong(
 						CONFIG_SOCKET_TIMEOUT).intValue());
@@ -179,6 +253,8 @@ public class Config implements Migrator {
 			proxyHost = env.getConfigString(CONFIG_PROXY_HOST);
 			proxyPort = env.getConfigLong(CONFIG_PROXY_PORT) == null ? 0
 					: env.getConfigLong(CONFIG_PROXY_PORT).intValue();
+			measureProxy = env.getConfigBoolean(CONFIG_MEASURE_PROXY) == null ? false
+					: env.getConfigBoolean(CONFIG_MEASURE_PROXY);
 		}
 		proxyAuth = env.getConfigBoolean(CONFIG_PROXY_AUTH) == null ? false : env.getConfigBoolean(CONFIG_PROXY_AUTH);
 		if (proxyAuth) {
@@ -222,6 +298,99 @@ public class Config implements Migrator {
 				
 			}
 		}
+
+		shareHttpClient = env.getConfigBoolean(CONFIG_SHARE_HTTP_CLIENT) == null ? false
+				: env.getConfigBoolean(CONFIG_SHARE_HTTP_CLIENT);
+
+		useTransaction = env.getConfigBoolean(CONFIG_USE_TRANSACTION) == null ? false
+				: env.getConfigBoolean(CONFIG_USE_TRANSACTION);
+		if (useTransaction) {
+			transactionStepsField = env.getConfigString(CONFIG_TRANSACTION_STEPS);
+			transactionSteps = TransactionStep.parse(transactionStepsField == null ? "" : transactionStepsField);
+			if (log.isLoggable(Level.FINE))
+				log.fine("Transaction with " + transactionSteps.size() + " steps");
+		}
+
+		useValueExtraction = env.getConfigBoolean(CONFIG_USE_VALUE_EXTRACTION) == null ? false
+				: env.getConfigBoolean(CONFIG_USE_VALUE_EXTRACTION);
+		if (useValueExtraction) {
+			extractValuesField = env.getConfigString(CONFIG_EXTRACT_VALUES);
+			valueExtraction = ValueExtraction.parse(extractValuesField == null ? "" : extractValuesField);
+		}
+
+		dnsCacheTtl = env.getConfigLong(CONFIG_DNS_CACHE_TTL) == null ? 60000
+				: env.getConfigLong(CONFIG_DNS_CACHE_TTL).longValue() * 1000;
+		coldDns = env.getConfigBoolean(CONFIG_COLD_DNS) == null ? false : env.getConfigBoolean(CONFIG_COLD_DNS);
+		measureTls = PROTOCOL_HTTPS.equals(protocol) && env.getConfigBoolean(CONFIG_MEASURE_TLS) != null
+				&& env.getConfigBoolean(CONFIG_MEASURE_TLS);
+		probeAllAddresses = env.getConfigBoolean(CONFIG_PROBE_ALL_ADDRESSES) == null ? false
+				: env.getConfigBoolean(CONFIG_PROBE_ALL_ADDRESSES);
+		// transactions and extracted values need the content of every response
+		adaptive = method == RequestType.GET && !connectOnly && transactionSteps == null && valueExtraction == null
+				&& env.getConfigBoolean(CONFIG_ADAPTIVE) != null && env.getConfigBoolean(CONFIG_ADAPTIVE);
+		adaptiveFullCheckInterval = env.getConfigLong(CONFIG_ADAPTIVE_FULL_CHECK_INTERVAL) == null ? 10
+				: env.getConfigLong(CONFIG_ADAPTIVE_FULL_CHECK_INTERVAL).intValue();
+
+		useJournal = env.getConfigBoolean(CONFIG_USE_JOURNAL) == null ? false : env.getConfigBoolean(CONFIG_USE_JOURNAL);
+		if (useJournal) {
+			journalFile = env.getConfigString(CONFIG_JOURNAL_FILE);
+			if (journalFile == null || journalFile.trim().isEmpty())
+				throw new IllegalArgumentException("No journal file configured.");
+			journalFile = journalFile.trim();
+			journalCapacity = env.getConfigLong(CONFIG_JOURNAL_CAPACITY) == null ? 100000
+					: env.getConfigLong(CONFIG_JOURNAL_CAPACITY).intValue();
+		}
+	}
+
+	/**
+	 * Computes the parts of the setup, which differ from the given previous configuration.
+	 *
+	 * @param previous the configuration currently applied.
+	 * @return the changed parts; empty if nothing changed.
+	 */
+	EnumSet<ConfigChange> diff(Config previous) {
+		EnumSet<ConfigChange> changes = EnumSet.noneOf(ConfigChange.class);
+		if (!getClientSettings().equals(previous.getClientSettings()) || shareHttpClient != previous.shareHttpClient)
+			changes.add(ConfigChange.client);
+		if (!getAuthSettings().equals(previous.getAuthSettings()))
+			changes.add(ConfigChange.auth);
+		if (!getProxySettings().equals(previous.getProxySettings()))
+			changes.add(ConfigChange.proxy);
+		if (!getRequestSettings().equals(previous.getRequestSettings()))
+			changes.add(ConfigChange.request);
+		return changes;
+	}
+
+	/**
+	 * @return the settings the http client is built with.
+	 */
+	List<Object> getClientSettings() {
+		return Arrays.<Object>asList(ignorecert, httpVersion, userAgent, socketTimeout, connectionTimeout);
+	}
+
+	/**
+	 * @return the server authorization settings, NTLM credentials are bound to the target host.
+	 */
+	List<Object> getAuthSettings() {
+		return Arrays.<Object>asList(serverAuth, serverUsername, serverPassword, serverAuthPreemptive,
+				serverAuth == AuthMethod.NTLM ? url.getHost() : null, serverAuth == AuthMethod.NTLM ? url.getPort() : null);
+	}
+
+	/**
+	 * @return the proxy settings.
+	 */
+	List<Object> getProxySettings() {
+		return Arrays.<Object>asList(useProxy, proxyHost, proxyPort, proxyAuth, proxyUsername, proxyPassword,
+				proxyAuthPreemptive);
+	}
+
+	/**
+	 * @return the settings only used per request.
+	 */
+	List<Object> getRequestSettings() {
+		return Arrays.<Object>asList(url, method, connectOnly, postData, tagging, timerName, matchContent, searchString, compareBytes,
+				useCustomHeader, customHeaderMap, useTransaction, transactionStepsField, useValueExtraction, extractValuesField, maxRedirects, cachePermanentRedirects,
+				dnsCacheTtl, coldDns, measureTls, probeAllAddresses, measureProxy, adaptive, adaptiveFullCheckInterval);
 	}
 
 	private String fixPath(String path) {
@@ -0,0 +1,24 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: ConfigChange.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+
+
+/**
+ * Enum list the parts of the UrlMonitor setup, which have to be rebuilt after a configuration change.
+ *
+ * @see Config#diff(Config)
+ */
+enum ConfigChange {
+	/** settings the http client is built with, the client has to be recreated. */
+	client,
+	/** server authorization settings, the credentials of the client have to be reset. */
+	auth,
+	/** proxy settings, the proxy of the client has to be reset. */
+	proxy,
+	/** settings only used per request (url, headers, content verification, ...), nothing has to be rebuilt. */
+	request
+}
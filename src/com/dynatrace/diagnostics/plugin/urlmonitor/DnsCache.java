@@ -0,0 +1,137 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: DnsCache.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+
+/**
+ * Resolver caching the addresses of host names for a limited time. The {@link #SHARED} cache is used by all UrlMonitors
+ * of the collector, so a host is resolved once per TTL instead of once per execution. The time to live is configured per
+ * lookup and bounded by the positive cache TTL of the JVM (<code>networkaddress.cache.ttl</code>, 30 seconds if not
+ * set), so addresses aren't kept longer than the JVM is configured to trust them. Failed lookups are not cached.
+ * <p>
+ * Uncached lookups are still answered by the DNS cache of the JVM while its TTL lasts, this cache only saves the lookup
+ * time and decides which address is used.
+ * <p>
+ * The actual lookup is done by the given {@link DnsResolver}, e.g. an {@link org.apache.http.impl.conn.InMemoryDnsResolver}
+ * to resolve hosts without a name server.
+ */
+final class DnsCache implements DnsResolver {
+
+	private static final Logger log = Logger.getLogger(DnsCache.class.getName());
+
+	private static final int MAX_ENTRIES = 1024;
+	private static final long DEFAULT_TTL_MILLIS = 60000;
+	/** the default positive cache TTL of the JVM without a security manager. */
+	private static final long DEFAULT_JVM_TTL_MILLIS = 30000;
+	/** the positive cache TTL of the JVM in milliseconds; -1 if the JVM caches forever. */
+	private static final long JVM_TTL_MILLIS = getJvmTtlMillis();
+
+	/** the cache shared by all UrlMonitors, resolving via the system resolver. */
+	static final DnsCache SHARED = new DnsCache(SystemDefaultDnsResolver.INSTANCE);
+
+	private final DnsResolver resolver;
+	/** least recently used entries are evicted first. */
+	private final Map<String, CachedAddresses> entries = new LinkedHashMap<String, CachedAddresses>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedAddresses> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	DnsCache(DnsResolver resolver) {
+		this.resolver = resolver;
+	}
+
+	@Override
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		return resolve(host, DEFAULT_TTL_MILLIS);
+	}
+
+	/**
+	 * @param ttlMillis the maximum age of cached addresses to return.
+	 * @return the cached addresses of the host, if they are younger than the TTL; the resolved addresses otherwise.
+	 * @throws UnknownHostException if the host can't be resolved.
+	 */
+	InetAddress[] resolve(String host, long ttlMillis) throws UnknownHostException {
+		if (JVM_TTL_MILLIS >= 0)
+			ttlMillis = Math.min(ttlMillis, JVM_TTL_MILLIS);
+		if (ttlMillis > 0) {
+			long now = System.nanoTime();
+			synchronized (entries) {
+				CachedAddresses cached = entries.get(host);
+				if (cached != null && now - cached.resolved < TimeUnit.MILLISECONDS.toNanos(ttlMillis))
+					return cached.addresses.clone();
+			}
+		}
+		return resolveUncached(host);
+	}
+
+	/**
+	 * resolves the host without looking at this cache, e.g. to measure the lookup of the resolver. The result is cached
+	 * for later lookups.
+	 *
+	 * @throws UnknownHostException if the host can't be resolved.
+	 */
+	InetAddress[] resolveUncached(String host) throws UnknownHostException {
+		long resolved = System.nanoTime();
+		// not synchronized, a slow lookup must not block lookups of other hosts
+		InetAddress[] addresses = resolver.resolve(host);
+		synchronized (entries) {
+			entries.put(host, new CachedAddresses(addresses.clone(), resolved));
+		}
+		return addresses;
+	}
+
+	/**
+	 * @return the number of cached hosts, including expired ones.
+	 */
+	int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	private static long getJvmTtlMillis() {
+		String ttl = Security.getProperty("networkaddress.cache.ttl");
+		if (ttl == null)
+			ttl = System.getProperty("sun.net.inetaddr.ttl");
+		if (ttl == null)
+			// like java.net.InetAddressCachePolicy, which caches forever if a security manager is installed
+			return System.getSecurityManager() == null ? DEFAULT_JVM_TTL_MILLIS : -1;
+		try {
+			long seconds = Long.parseLong(ttl.trim());
+			return seconds < 0 ? -1 : TimeUnit.SECONDS.toMillis(seconds);
+		} catch (NumberFormatException e) {
+			log.warning("Invalid DNS cache TTL of the JVM: " + ttl);
+			return -1;
+		}
+	}
+
+	private static final class CachedAddresses {
+
+		private final InetAddress[] addresses;
+		/** System.nanoTime() of the lookup. */
+		private final long resolved;
+
+		private CachedAddresses(InetAddress[] addresses, long resolved) {
+			this.addresses = addresses;
+			this.resolved = resolved;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: Exchange.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import javax.net.ssl.SSLSession;
+
+import org.apache.http.HttpConnectionMetrics;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * The course of one request sent by a {@link MonitorHttpClient}, recorded by the client while the request is executed.
+ * Every request gets an exchange of its own, which is kept in the context of the request. An exchange is only used by
+ * the thread executing the request.
+ */
+final class Exchange {
+
+	/** the context attribute holding the exchange of a request. */
+	static final String ATTRIBUTE = "com.dynatrace.diagnostics.plugin.urlmonitor.exchange";
+
+	/** the time waited for a connection of the pool in nanoseconds. */
+	private long leaseTime;
+	private boolean tlsHandshaked;
+	/** the duration of the TLS handshake in nanoseconds. */
+	private long tlsHandshakeTime;
+	private boolean tlsSessionResumed;
+	/** the TLS session of the connection the request was sent on; null if sent without TLS. */
+	private SSLSession sslSession;
+	/** the time to connect a plain socket in nanoseconds, -1 if no plain socket was connected. */
+	private long connectTime = -1;
+	/** the time to set up the tunnel through the proxy in nanoseconds, -1 if no tunnel was set up. */
+	private long tunnelTime = -1;
+	/** the time from sending the request until the response header arrived in nanoseconds. */
+	private long responseTime;
+	/** the metrics of the connection the request is sent on, until the connection is released. */
+	private HttpConnectionMetrics metrics;
+	private long sentStart;
+	private long receivedStart;
+	/** the bytes sent and received on connections already released. */
+	private long sentBytes;
+	private long receivedBytes;
+	/** the bytes of the response content as received, before decoding. */
+	private long contentBytes;
+
+	/**
+	 * @return the exchange of the request executed with the given context; null if it wasn't sent by a
+	 *         {@link MonitorHttpClient}.
+	 */
+	static Exchange get(HttpContext context) {
+		return (Exchange) context.getAttribute(ATTRIBUTE);
+	}
+
+	void addLeaseTime(long leaseTime) {
+		this.leaseTime += leaseTime;
+	}
+
+	/**
+	 * @return the time waited for a connection of the pool in nanoseconds, including retries of the request.
+	 */
+	long getLeaseTime() {
+		return leaseTime;
+	}
+
+	void setTlsHandshake(long tlsHandshakeTime, boolean tlsSessionResumed) {
+		this.tlsHandshaked = true;
+		this.tlsHandshakeTime = tlsHandshakeTime;
+		this.tlsSessionResumed = tlsSessionResumed;
+	}
+
+	/**
+	 * @return true if a TLS handshake was done for the request; false if it was sent on a connection of the pool or
+	 *         without TLS.
+	 */
+	boolean isTlsHandshaked() {
+		return tlsHandshaked;
+	}
+
+	long getTlsHandshakeTime() {
+		return tlsHandshakeTime;
+	}
+
+	boolean isTlsSessionResumed() {
+		return tlsSessionResumed;
+	}
+
+	void setSslSession(SSLSession sslSession) {
+		this.sslSession = sslSession;
+	}
+
+	SSLSession getSslSession() {
+		return sslSession;
+	}
+
+	void setConnectTime(long connectTime) {
+		this.connectTime = connectTime;
+	}
+
+	/**
+	 * @return the time to connect the plain socket of a new connection to an http server or a proxy in nanoseconds; -1
+	 *         if the request was sent on a connection of the pool or a TLS connection to the server.
+	 */
+	long getConnectTime() {
+		return connectTime;
+	}
+
+	void addTunnelTime(long tunnelTime) {
+		this.tunnelTime = Math.max(this.tunnelTime, 0) + tunnelTime;
+	}
+
+	/**
+	 * @return the time to set up the tunnel through the proxy in nanoseconds, including the authentication at the
+	 *         proxy; -1 if the request was sent through a tunnel of the pool or without a tunnel.
+	 */
+	long getTunnelTime() {
+		return tunnelTime;
+	}
+
+	void setResponseTime(long responseTime) {
+		this.responseTime = responseTime;
+	}
+
+	/**
+	 * @return the time from sending the request until the response header arrived in nanoseconds. If the request was
+	 *         sent again to authenticate, the time of the last one.
+	 */
+	long getResponseTime() {
+		return responseTime;
+	}
+
+	/**
+	 * starts counting the bytes sent and received on the connection the request is sent on. Requests sent again on the
+	 * same connection, e.g. to authenticate, are counted once.
+	 */
+	void attach(HttpConnectionMetrics metrics) {
+		if (metrics == this.metrics)
+			return;
+		detach();
+		this.metrics = metrics;
+		sentStart = metrics.getSentBytesCount();
+		receivedStart = metrics.getReceivedBytesCount();
+	}
+
+	/**
+	 * stops counting the bytes of the connection, which is released and may be used by another request afterwards.
+	 */
+	void detach() {
+		if (metrics == null)
+			return;
+		sentBytes += metrics.getSentBytesCount() - sentStart;
+		receivedBytes += metrics.getReceivedBytesCount() - receivedStart;
+		metrics = null;
+	}
+
+	/**
+	 * @return the bytes sent for the request, including requests sent again to authenticate, excluding the requests
+	 *         setting up a tunnel and the TLS records.
+	 */
+	long getSentBytes() {
+		return metrics == null ? sentBytes : sentBytes + metrics.getSentBytesCount() - sentStart;
+	}
+
+	/**
+	 * @return the bytes received for the request: status lines, headers, and content including its transfer and content
+	 *         encoding, of all responses of the request, excluding the responses setting up a tunnel and the TLS
+	 *         records.
+	 */
+	long getReceivedBytes() {
+		return metrics == null ? receivedBytes : receivedBytes + metrics.getReceivedBytesCount() - receivedStart;
+	}
+
+	void addContentBytes(long contentBytes) {
+		this.contentBytes += contentBytes;
+	}
+
+	/**
+	 * @return the bytes of the response content read, before the content encoding was decoded, without the chunk
+	 *         framing.
+	 */
+	long getContentBytes() {
+		return contentBytes;
+	}
+}
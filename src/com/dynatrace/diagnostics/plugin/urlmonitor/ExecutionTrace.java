@@ -0,0 +1,87 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: ExecutionTrace.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Fixed size ring buffer of the last executions of one UrlMonitor. The buffer is allocated once, recording an execution
+ * doesn't allocate any memory, so the trace can be kept for every execution instead of logging it. The trace is logged
+ * when the monitor starts failing.
+ */
+final class ExecutionTrace {
+
+	// record layout: timestamp, status code, first response, response complete, close delay, header size, response size
+	private static final int RECORD_SIZE = 8 + 4 + 8 + 8 + 8 + 4 + 4;
+	private static final double MILLIS = 0.000001;
+	/** the format of the timestamps, created once per thread dumping traces. */
+	private static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		}
+	};
+
+	private final ByteBuffer records;
+	/** the error class of each record; null if the execution succeeded. */
+	private final Class<?>[] errors;
+	private final int capacity;
+	private int next = 0;
+	private int count = 0;
+
+	ExecutionTrace(int capacity) {
+		this.capacity = capacity;
+		this.records = ByteBuffer.allocate(capacity * RECORD_SIZE);
+		this.errors = new Class<?>[capacity];
+	}
+
+	/**
+	 * records one execution, the oldest record is overwritten if the buffer is full.
+	 *
+	 * @param timestamp the start of the execution in milliseconds.
+	 * @param measureCollector the results of the execution.
+	 * @param error the error the execution failed with; null if the execution succeeded.
+	 */
+	synchronized void record(long timestamp, MeasureCollector measureCollector, Throwable error) {
+		int offset = next * RECORD_SIZE;
+		records.putLong(offset, timestamp);
+		records.putInt(offset + 8, measureCollector.getHttpStatusCode());
+		records.putLong(offset + 12, measureCollector.getFirstResponseTime());
+		records.putLong(offset + 20, measureCollector.getResponseCompleteTime());
+		records.putLong(offset + 28, measureCollector.getConnectionCloseDelay());
+		records.putInt(offset + 36, measureCollector.getHeaderSize());
+		records.putInt(offset + 40, measureCollector.getInputSize());
+		errors[next] = error == null ? null : error.getClass();
+		next = (next + 1) % capacity;
+		if (count < capacity)
+			count++;
+	}
+
+	/**
+	 * appends the recorded executions, oldest first, one line per execution.
+	 */
+	synchronized void dump(StringBuilder buf) {
+		SimpleDateFormat dateFormat = ExecutionTrace.dateFormat.get();
+		int first = (next - count + capacity) % capacity;
+		for (int i = 0; i < count; i++) {
+			int index = (first + i) % capacity;
+			int offset = index * RECORD_SIZE;
+			buf.append(dateFormat.format(new Date(records.getLong(offset))))
+					.append(" status=").append(records.getInt(offset + 8))
+					.append(" firstResponse=").append(records.getLong(offset + 12) * MILLIS).append("ms")
+					.append(" complete=").append(records.getLong(offset + 20) * MILLIS).append("ms")
+					.append(" close=").append(records.getLong(offset + 28) * MILLIS).append("ms")
+					.append(" header=").append(records.getInt(offset + 36)).append("B")
+					.append(" size=").append(records.getInt(offset + 40)).append("B");
+			if (errors[index] != null)
+				buf.append(" error=").append(errors[index].getSimpleName());
+			buf.append("\n");
+		}
+	}
+}
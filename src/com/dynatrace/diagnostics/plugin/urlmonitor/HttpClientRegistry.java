@@ -0,0 +1,156 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: HttpClientRegistry.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Logger;
+
+/**
+ * JVM wide registry of {@link MonitorHttpClient}s, which are shared between all UrlMonitor instances of one collector
+ * with equal effective client settings. Clients are reference counted and closed, if no monitor acquired them again
+ * within {@link #LINGER_MILLIS} after the last monitor released them. So a monitor, which is set up again after a
+ * configuration change not affecting the client settings, will get the client with its warm connections back. The pool
+ * of a client is sized for the monitors currently sharing it.
+ */
+final class HttpClientRegistry {
+
+	private static final Logger log = Logger.getLogger(HttpClientRegistry.class.getName());
+
+	/** time in milliseconds an unreferenced client is kept open. */
+	private static final long LINGER_MILLIS = 60000;
+
+	private static final Map<ClientKey, SharedClient> clients = new HashMap<ClientKey, SharedClient>();
+	/** closes unreferenced clients, only running while clients are registered. */
+	private static Timer lingerTimer;
+
+	private HttpClientRegistry() {
+	}
+
+	/**
+	 * Creates a new client for a key, which is not registered yet.
+	 */
+	interface ClientFactory {
+
+		MonitorHttpClient create() throws Exception;
+	}
+
+	/**
+	 * retrieves the shared client for the given key, the client is created by the factory if not registered yet.
+	 *
+	 * @param key the effective client settings.
+	 * @param factory used to create the client, if no client is registered for the key.
+	 * @return the shared client, has to be released by {@link #release(SharedClient)}.
+	 */
+	static synchronized SharedClient acquire(ClientKey key, ClientFactory factory) throws Exception {
+		SharedClient client = clients.get(key);
+		if (client == null) {
+			client = new SharedClient(key, factory.create());
+			clients.put(key, client);
+			log.fine("created shared http client, registered clients: " + clients.size());
+		}
+		client.references++;
+		client.httpClient.setMonitorCount(client.references);
+		return client;
+	}
+
+	/**
+	 * Releases the given client, the client will be closed if it is not acquired again within {@link #LINGER_MILLIS}.
+	 */
+	static synchronized void release(final SharedClient client) {
+		if (--client.references > 0) {
+			client.httpClient.setMonitorCount(client.references);
+			return;
+		}
+		final int releaseCount = ++client.releaseCount;
+		if (lingerTimer == null)
+			lingerTimer = new Timer("UrlMonitor HTTP client linger", true);
+		lingerTimer.schedule(new TimerTask() {
+
+			@Override
+			public void run() {
+				closeUnreferenced(client, releaseCount);
+			}
+		}, LINGER_MILLIS);
+	}
+
+	private static synchronized void closeUnreferenced(SharedClient client, int releaseCount) {
+		// acquired again or released again later on
+		if (client.references > 0 || client.releaseCount != releaseCount)
+			return;
+		clients.remove(client.key);
+		client.httpClient.close();
+		log.fine("closed shared http client, registered clients: " + clients.size());
+		if (clients.isEmpty()) {
+			lingerTimer.cancel();
+			lingerTimer = null;
+		}
+	}
+
+	/**
+	 * @return the number of clients currently registered.
+	 */
+	static synchronized int getClientCount() {
+		return clients.size();
+	}
+
+	/**
+	 * A http client shared by several monitors. The monitors send their requests concurrently with the thread safe
+	 * client beneath it, each with cookies and request headers of its own.
+	 */
+	static final class SharedClient {
+
+		private final ClientKey key;
+		private final MonitorHttpClient httpClient;
+		private int references;
+		private int releaseCount;
+
+		private SharedClient(ClientKey key, MonitorHttpClient httpClient) {
+			this.key = key;
+			this.httpClient = httpClient;
+		}
+
+		MonitorHttpClient getHttpClient() {
+			return httpClient;
+		}
+
+		/**
+		 * @return the number of monitors currently sharing this client.
+		 */
+		int getReferences() {
+			synchronized (HttpClientRegistry.class) {
+				return references;
+			}
+		}
+	}
+
+	/**
+	 * The effective settings of a http client, clients are only shared between monitors with equal keys.
+	 */
+	static final class ClientKey {
+
+		private final List<Object> settings;
+
+		ClientKey(Config config) {
+			settings = Arrays.<Object>asList(config.getClientSettings(), config.getAuthSettings(),
+					config.getProxySettings());
+		}
+
+		@Override
+		public int hashCode() {
+			return settings.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ClientKey && settings.equals(((ClientKey) obj).settings);
+		}
+	}
+}
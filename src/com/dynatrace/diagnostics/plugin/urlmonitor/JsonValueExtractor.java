@@ -0,0 +1,256 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: JsonValueExtractor.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Incremental JSON tokenizer, which extracts numeric values of the configured paths while the content is streamed
+ * through it. No document is built, only the path of the current value is kept, so the memory needed doesn't depend on
+ * the size of the document.
+ * <p>
+ * Paths are written as <code>$.key.key[index]</code>; numbers and booleans (1/0) can be extracted. The first value
+ * found for a path wins. If the content isn't valid JSON, extraction stops at the first invalid character.
+ */
+final class JsonValueExtractor {
+
+	private static final int EXPECT_VALUE = 0;
+	private static final int EXPECT_KEY = 1;
+	private static final int EXPECT_COLON = 2;
+	private static final int EXPECT_COMMA_OR_END = 3;
+	private static final int DONE = 4;
+	private static final int FAILED = 5;
+
+	private final String[] paths;
+	private final double[] values;
+	private final boolean[] found;
+
+	/** the path of the current value. */
+	private final StringBuilder path = new StringBuilder("$");
+	/** the length of the path of the enclosing container per depth. */
+	private int[] pathLengths = new int[16];
+	private boolean[] arrays = new boolean[16];
+	private int[] indexes = new int[16];
+	private int depth = 0;
+	private int state = EXPECT_VALUE;
+
+	private boolean inString = false;
+	private boolean stringIsKey = false;
+	private boolean escape = false;
+	private int unicodeDigits = 0;
+	private int unicodeChar = 0;
+	/** the current number or literal. */
+	private final StringBuilder literal = new StringBuilder();
+
+	JsonValueExtractor(List<String> paths) {
+		this.paths = paths.toArray(new String[paths.size()]);
+		this.values = new double[this.paths.length];
+		this.found = new boolean[this.paths.length];
+	}
+
+	/**
+	 * feeds the next part of the document.
+	 */
+	void feed(CharSequence chars) {
+		for (int i = 0; i < chars.length() && state < DONE; i++) {
+			feed(chars.charAt(i));
+		}
+	}
+
+	/**
+	 * signals the end of the document, so a number at the end of the document will be extracted.
+	 */
+	void finish() {
+		if (literal.length() > 0)
+			literalFinished();
+	}
+
+	/**
+	 * @return true if a value was found for the path with the given index.
+	 */
+	boolean isFound(int index) {
+		return found[index];
+	}
+
+	/**
+	 * @return the value found for the path with the given index.
+	 */
+	double getValue(int index) {
+		return values[index];
+	}
+
+	private void feed(char c) {
+		if (inString) {
+			feedString(c);
+			return;
+		}
+		if (literal.length() > 0) {
+			if (isLiteralChar(c)) {
+				literal.append(c);
+				return;
+			}
+			literalFinished();
+		}
+		if (c == ' ' || c == '\t' || c == '\r' || c == '\n')
+			return;
+
+		switch (state) {
+		case EXPECT_VALUE:
+			if (c == '{') {
+				push(false);
+				state = EXPECT_KEY;
+			} else if (c == '[') {
+				push(true);
+				elementStarted();
+				state = EXPECT_VALUE;
+			} else if (c == ']' && depth > 0 && arrays[depth - 1]) {
+				// empty array
+				pop();
+			} else if (c == '"') {
+				inString = true;
+				stringIsKey = false;
+			} else if (isLiteralChar(c)) {
+				literal.append(c);
+			} else {
+				state = FAILED;
+			}
+			break;
+		case EXPECT_KEY:
+			if (c == '"') {
+				inString = true;
+				stringIsKey = true;
+				path.setLength(pathLengths[depth - 1]);
+				path.append('.');
+			} else if (c == '}') {
+				// empty object
+				pop();
+			} else {
+				state = FAILED;
+			}
+			break;
+		case EXPECT_COLON:
+			state = c == ':' ? EXPECT_VALUE : FAILED;
+			break;
+		case EXPECT_COMMA_OR_END:
+			if (c == ',') {
+				if (arrays[depth - 1]) {
+					indexes[depth - 1]++;
+					elementStarted();
+					state = EXPECT_VALUE;
+				} else {
+					state = EXPECT_KEY;
+				}
+			} else if ((c == '}' && !arrays[depth - 1]) || (c == ']' && arrays[depth - 1])) {
+				pop();
+			} else {
+				state = FAILED;
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void feedString(char c) {
+		if (unicodeDigits > 0) {
+			unicodeChar = unicodeChar * 16 + Character.digit(c, 16);
+			if (--unicodeDigits == 0 && stringIsKey)
+				path.append((char) unicodeChar);
+		} else if (escape) {
+			escape = false;
+			if (c == 'u') {
+				unicodeDigits = 4;
+				unicodeChar = 0;
+			} else if (stringIsKey) {
+				path.append(c == 'n' ? '\n' : c == 't' ? '\t' : c == 'r' ? '\r' : c == 'b' ? '\b' : c == 'f' ? '\f' : c);
+			}
+		} else if (c == '\\') {
+			escape = true;
+		} else if (c == '"') {
+			inString = false;
+			if (stringIsKey) {
+				state = EXPECT_COLON;
+			} else {
+				valueFinished();
+			}
+		} else if (stringIsKey) {
+			path.append(c);
+		}
+	}
+
+	private void literalFinished() {
+		int index = findPath();
+		if (index >= 0) {
+			if (equals(literal, "true")) {
+				setValue(index, 1);
+			} else if (equals(literal, "false")) {
+				setValue(index, 0);
+			} else if (!equals(literal, "null")) {
+				try {
+					setValue(index, Double.parseDouble(literal.toString()));
+				} catch (NumberFormatException e) {
+					state = FAILED;
+				}
+			}
+		}
+		literal.setLength(0);
+		if (state != FAILED)
+			valueFinished();
+	}
+
+	private void valueFinished() {
+		state = depth == 0 ? DONE : EXPECT_COMMA_OR_END;
+	}
+
+	private void push(boolean array) {
+		if (depth == arrays.length) {
+			pathLengths = Arrays.copyOf(pathLengths, depth * 2);
+			arrays = Arrays.copyOf(arrays, depth * 2);
+			indexes = Arrays.copyOf(indexes, depth * 2);
+		}
+		pathLengths[depth] = path.length();
+		arrays[depth] = array;
+		indexes[depth] = 0;
+		depth++;
+	}
+
+	private void pop() {
+		depth--;
+		path.setLength(pathLengths[depth]);
+		valueFinished();
+	}
+
+	private void elementStarted() {
+		path.setLength(pathLengths[depth - 1]);
+		path.append('[').append(indexes[depth - 1]).append(']');
+	}
+
+	private void setValue(int index, double value) {
+		values[index] = value;
+		found[index] = true;
+	}
+
+	/**
+	 * @return the index of the first path equal to the current path, which has no value yet; -1 if there is none.
+	 */
+	private int findPath() {
+		for (int i = 0; i < paths.length; i++) {
+			if (!found[i] && paths[i].contentEquals(path))
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean isLiteralChar(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-' || c == '+' ||
+				c == '.';
+	}
+
+	private static boolean equals(StringBuilder buf, String value) {
+		return value.contentEquals(buf);
+	}
+}
@@ -7,7 +7,14 @@
  */
 package com.dynatrace.diagnostics.plugin.urlmonitor;
 
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.pool.PoolStats;
 
 import com.dynatrace.diagnostics.pdk.MonitorEnvironment;
 import com.dynatrace.diagnostics.pdk.MonitorMeasure;
@@ -32,20 +39,90 @@ public class MeasureCollector {
 	static final String MSR_CONTENT_VERIFIED = "ContentVerified";
 	static final String MSR_SOCKET_TIMEOUT = "SocketTimedOut";
 	static final String MSR_CONNECT_TIMEOUT = "ConnectionTimedOut";
+	static final String MSR_SHARED_CLIENTS = "SharedHttpClients";
+	static final String MSR_SHARED_CLIENT_REFERENCES = "SharedHttpClientReferences";
+	static final String MSR_POOL_WAIT_TIME = "PoolWaitTime";
+	static final String MSR_POOL_LEASED_CONNECTIONS = "PoolLeasedConnections";
+	static final String MSR_POOL_AVAILABLE_CONNECTIONS = "PoolAvailableConnections";
+	static final String MSR_POOL_PENDING_REQUESTS = "PoolPendingRequests";
+	static final String MSR_POOL_MAX_CONNECTIONS = "PoolMaxConnections";
+	static final String MSR_STEP_FIRST_RESPONSE_DELAY = "StepFirstResponseDelay";
+	static final String MSR_STEP_RESPONSE_COMPLETE_TIME = "StepResponseCompleteTime";
+	static final String MSR_STEP_HTTP_STATUS_CODE = "StepHttpStatusCode";
+	static final String MSR_STEP_RESPONSE_SIZE = "StepResponseSize";
+	static final String MSR_EXTRACTED_VALUE = "ExtractedValue";
+	static final String MSR_REDIRECT_COUNT = "RedirectCount";
+	static final String MSR_REDIRECT_HOP_TIME = "RedirectHopTime";
+	static final String MSR_REQUEST_SIZE = "RequestSize";
+	static final String MSR_DNS_LOOKUP_TIME = "DnsLookupTime";
+	static final String MSR_CONNECT_TIME = "ConnectTime";
+	static final String MSR_TLS_HANDSHAKE_TIME = "TlsHandshakeTime";
+	static final String MSR_TLS_SESSION_RESUMED = "TlsSessionResumed";
+	static final String MSR_CERTIFICATE_EXPIRY = "CertificateExpiry";
+	static final String MSR_RESOLVED_ADDRESSES = "ResolvedAddresses";
+	static final String MSR_FAILED_ADDRESSES = "FailedAddresses";
+	static final String MSR_ADDRESS_HTTP_STATUS_CODE = "AddressHttpStatusCode";
+	static final String MSR_ADDRESS_FIRST_RESPONSE_DELAY = "AddressFirstResponseDelay";
+	static final String MSR_PROXY_CONNECT_TIME = "ProxyConnectTime";
+	static final String MSR_PROXY_TUNNEL_TIME = "ProxyTunnelTime";
+	static final String MSR_ORIGIN_RESPONSE_TIME = "OriginResponseTime";
+	static final String MSR_ADAPTIVE_MODE = "AdaptiveMode";
+
+	/** dynamic measure name of the transaction step measures. */
+	static final String DYNAMIC_STEP = "Step";
+	/** dynamic measure name of the extracted values. */
+	static final String DYNAMIC_VALUE = "Value";
+	/** dynamic measure name of the redirect hop measures, the number of the hop within the execution. */
+	static final String DYNAMIC_HOP = "Hop";
+	/** dynamic measure name of the measures per address of the host. */
+	static final String DYNAMIC_ADDRESS = "Address";
 
 	private static final double MILLIS = 0.000001;
 	private static final double SECS = 0.000000001;
+	private static final double DAYS = 1.0 / (24 * 60 * 60 * 1000);
 
 	private int httpStatusCode = 0;
-	private int headerSize = 0;
 	private long firstResponseTime = 0;
 	private long responseCompleteTime = 0;
 	private long connectionCloseDelay = 0;
 	private boolean verified = false;
 	private long time;
 	private int inputSize = 0;
+	/** the requests sent, their sizes are final once their connections were released. */
+	private final List<Exchange> exchanges = new ArrayList<Exchange>();
 	private boolean socketTimedOut = false;
 	private boolean connectionTimedOut = false;
+	private int sharedClientReferences = 0;
+	/** the time waited for connections of the pool, not included in the response times. */
+	private long poolWaitTime = 0;
+	/** the state of the pool before the request was sent; null if not known. */
+	private PoolStats poolStats;
+	private final List<StepResult> stepResults = new ArrayList<StepResult>();
+	private final Map<String, Double> extractedValues = new LinkedHashMap<String, Double>();
+	private int redirectCount = 0;
+	/** the response times of the requests of the redirect chains, in the order sent. */
+	private final List<Long> redirectHops = new ArrayList<Long>();
+	private String finalUrl;
+	private long dnsLookupTime = 0;
+	/** true if the host was connected without sending a request. */
+	private boolean connected = false;
+	private long connectTime = 0;
+	private boolean tlsMeasured = false;
+	private long tlsHandshakeTime = 0;
+	private boolean tlsSessionResumed = false;
+	/** the time until the certificate of the server expires in milliseconds. */
+	private long certificateExpiry = 0;
+	private boolean certificateMeasured = false;
+	private final List<AddressResult> addressResults = new ArrayList<AddressResult>();
+	private boolean proxyConnected = false;
+	private long proxyConnectTime = 0;
+	private boolean proxyTunnelOpened = false;
+	private long proxyTunnelTime = 0;
+	private boolean originResponded = false;
+	/** the time from sending the request through the proxy until the response header arrived. */
+	private long originResponseTime = 0;
+	/** the mode of an adaptive check, see {@link AdaptiveBaseline}; -1 if the check isn't adaptive. */
+	private int adaptiveMode = -1;
 
 	private MonitorEnvironment monitorEnvironment;
 
@@ -67,7 +144,7 @@ public class MeasureCollector {
 		// set host reachable
 		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_HOST_REACHABLE)) != null) {
 			for (MonitorMeasure measure : measures)
-				measure.setValue(httpStatusCode > 0 ? 1 : 0);
+				measure.setValue(isHostReachable() ? 1 : 0);
 		}
 		// set connection timeout
 		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_CONNECT_TIMEOUT)) != null) {
@@ -89,13 +166,63 @@ public class MeasureCollector {
 		Collection<MonitorMeasure> measures;
 		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_HOST_REACHABLE)) != null) {
 			for (MonitorMeasure measure : measures)
-				measure.setValue(httpStatusCode > 0 ? 1 : 0);
+				measure.setValue(isHostReachable() ? 1 : 0);
+		}
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_DNS_LOOKUP_TIME)) != null) {
+			double dnsLookupTimeMillis = dnsLookupTime * MILLIS;
+			for (MonitorMeasure measure : measures)
+				measure.setValue(dnsLookupTimeMillis);
 		}
-		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_HEADER_SIZE)) != null) {
+		if (connected && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_CONNECT_TIME)) != null) {
+			double connectTimeMillis = connectTime * MILLIS;
 			for (MonitorMeasure measure : measures)
-				measure.setValue(headerSize);
+				measure.setValue(connectTimeMillis);
 		}
-		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_FIRST_RESPONSE_DELAY)) != null) {
+		if (tlsMeasured && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_TLS_HANDSHAKE_TIME)) != null) {
+			double tlsHandshakeTimeMillis = tlsHandshakeTime * MILLIS;
+			for (MonitorMeasure measure : measures)
+				measure.setValue(tlsHandshakeTimeMillis);
+		}
+		if (tlsMeasured && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_TLS_SESSION_RESUMED)) != null) {
+			for (MonitorMeasure measure : measures)
+				measure.setValue(tlsSessionResumed ? 1 : 0);
+		}
+		if (certificateMeasured
+				&& (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_CERTIFICATE_EXPIRY)) != null) {
+			double certificateExpiryDays = certificateExpiry * DAYS;
+			for (MonitorMeasure measure : measures)
+				measure.setValue(certificateExpiryDays);
+		}
+		if (proxyConnected
+				&& (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_PROXY_CONNECT_TIME)) != null) {
+			double proxyConnectTimeMillis = proxyConnectTime * MILLIS;
+			for (MonitorMeasure measure : measures)
+				measure.setValue(proxyConnectTimeMillis);
+		}
+		if (proxyTunnelOpened
+				&& (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_PROXY_TUNNEL_TIME)) != null) {
+			double proxyTunnelTimeMillis = proxyTunnelTime * MILLIS;
+			for (MonitorMeasure measure : measures)
+				measure.setValue(proxyTunnelTimeMillis);
+		}
+		if (originResponded
+				&& (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_ORIGIN_RESPONSE_TIME)) != null) {
+			double originResponseTimeMillis = originResponseTime * MILLIS;
+			for (MonitorMeasure measure : measures)
+				measure.setValue(originResponseTimeMillis);
+		}
+		if (adaptiveMode >= 0 && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_ADAPTIVE_MODE)) != null) {
+			for (MonitorMeasure measure : measures)
+				measure.setValue(adaptiveMode);
+		}
+		// without a request of Connect only there's no response to measure, light checks don't load the content
+		boolean requested = !connected;
+		boolean contentLoaded = requested && adaptiveMode != AdaptiveBaseline.MODE_LIGHT;
+		if (requested && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_HEADER_SIZE)) != null) {
+			for (MonitorMeasure measure : measures)
+				measure.setValue(getHeaderSize());
+		}
+		if (requested && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_FIRST_RESPONSE_DELAY)) != null) {
 			double firstResponseTimeMillis = firstResponseTime * MILLIS;
 			for (MonitorMeasure measure : measures)
 				measure.setValue(firstResponseTimeMillis);
@@ -105,21 +232,26 @@ public class MeasureCollector {
 			for (MonitorMeasure measure : measures)
 				measure.setValue(responseCompleteTimeMillis);
 		}
-		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_RESPONSE_SIZE)) != null) {
+		if (contentLoaded && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_RESPONSE_SIZE)) != null) {
 			for (MonitorMeasure measure : measures)
 				measure.setValue(inputSize);
 		}
-		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_THROUGHPUT)) != null) {
+		if (contentLoaded && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_THROUGHPUT)) != null) {
 			double throughput = 0;
 			if (responseCompleteTime > 0) {
 				double responseCompleteTimeSecs = responseCompleteTime * SECS;
-				double contentSizeKibiByte = inputSize / 1024.0;
+				// everything received: header and content as transferred
+				double contentSizeKibiByte = getReceivedSize() / 1024.0;
 				throughput = contentSizeKibiByte / responseCompleteTimeSecs;
 			}
 			for (MonitorMeasure measure : measures)
 				measure.setValue(throughput);
 		}
-		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_HTTP_STATUS_CODE)) != null) {
+		if (requested && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_REQUEST_SIZE)) != null) {
+			for (MonitorMeasure measure : measures)
+				measure.setValue(getRequestSize());
+		}
+		if (requested && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_HTTP_STATUS_CODE)) != null) {
 			for (MonitorMeasure measure : measures)
 				measure.setValue(httpStatusCode);
 		}
@@ -128,28 +260,139 @@ public class MeasureCollector {
 			for (MonitorMeasure measure : measures)
 				measure.setValue(connectionCloseDelayMillis);
 		}
-		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_CONTENT_VERIFIED)) != null) {
+		if (contentLoaded
+				&& (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_CONTENT_VERIFIED)) != null) {
 			for (MonitorMeasure measure : measures)
 				measure.setValue(verified ? 1 : 0);
 		}
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_SHARED_CLIENTS)) != null) {
+			int sharedClients = HttpClientRegistry.getClientCount();
+			for (MonitorMeasure measure : measures)
+				measure.setValue(sharedClients);
+		}
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_SHARED_CLIENT_REFERENCES)) != null) {
+			for (MonitorMeasure measure : measures)
+				measure.setValue(sharedClientReferences);
+		}
+		if (requested && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_POOL_WAIT_TIME)) != null) {
+			for (MonitorMeasure measure : measures)
+				measure.setValue(poolWaitTime * MILLIS);
+		}
+		if (poolStats != null) {
+			if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_POOL_LEASED_CONNECTIONS)) != null) {
+				for (MonitorMeasure measure : measures)
+					measure.setValue(poolStats.getLeased());
+			}
+			if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_POOL_AVAILABLE_CONNECTIONS)) != null) {
+				for (MonitorMeasure measure : measures)
+					measure.setValue(poolStats.getAvailable());
+			}
+			if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_POOL_PENDING_REQUESTS)) != null) {
+				for (MonitorMeasure measure : measures)
+					measure.setValue(poolStats.getPending());
+			}
+			if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_POOL_MAX_CONNECTIONS)) != null) {
+				for (MonitorMeasure measure : measures)
+					measure.setValue(poolStats.getMax());
+			}
+		}
+		if (requested && (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_REDIRECT_COUNT)) != null) {
+			for (MonitorMeasure measure : measures)
+				measure.setValue(redirectCount);
+		}
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_REDIRECT_HOP_TIME)) != null) {
+			for (MonitorMeasure measure : measures)
+				for (int i = 0; i < redirectHops.size(); i++)
+					monitorEnvironment.createDynamicMeasure(measure, DYNAMIC_HOP, String.valueOf(i + 1)).setValue(
+							redirectHops.get(i) * MILLIS);
+		}
+		if (!stepResults.isEmpty())
+			applyStepMeasuresToEnvironment();
+		if (!extractedValues.isEmpty()
+				&& (measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_EXTRACTED_VALUE)) != null) {
+			for (MonitorMeasure measure : measures)
+				for (Map.Entry<String, Double> value : extractedValues.entrySet())
+					monitorEnvironment.createDynamicMeasure(measure, DYNAMIC_VALUE, value.getKey()).setValue(
+							value.getValue());
+		}
 	}
 
-	void setHttpStatusCode(int httpStatusCode) {
-		this.httpStatusCode = httpStatusCode;
+	/**
+	 * Apply the results of the probes of all addresses of the host, the results are independent of the result of the
+	 * request.
+	 */
+	void applyAddressMeasuresToEnvironment() {
+		Collection<MonitorMeasure> measures;
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_RESOLVED_ADDRESSES)) != null) {
+			for (MonitorMeasure measure : measures)
+				measure.setValue(addressResults.size());
+		}
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_FAILED_ADDRESSES)) != null) {
+			int failedAddresses = 0;
+			for (AddressResult address : addressResults)
+				if (address.failed)
+					failedAddresses++;
+			for (MonitorMeasure measure : measures)
+				measure.setValue(failedAddresses);
+		}
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_ADDRESS_HTTP_STATUS_CODE)) != null) {
+			for (MonitorMeasure measure : measures)
+				for (AddressResult address : addressResults)
+					// addresses connected without request have no status code
+					if (address.httpStatusCode > 0 || address.failed)
+						monitorEnvironment.createDynamicMeasure(measure, DYNAMIC_ADDRESS, address.address).setValue(
+								address.httpStatusCode);
+		}
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_ADDRESS_FIRST_RESPONSE_DELAY)) != null) {
+			for (MonitorMeasure measure : measures)
+				for (AddressResult address : addressResults)
+					if (address.httpStatusCode > 0 || !address.failed)
+						monitorEnvironment.createDynamicMeasure(measure, DYNAMIC_ADDRESS, address.address).setValue(
+								address.firstResponseTime * MILLIS);
+		}
 	}
 
-	void setHeaderSize(int headerSize) {
-		this.headerSize = headerSize;
+	/**
+	 * Apply the results of the transaction steps as dynamic measures, split by the name of the step.
+	 */
+	private void applyStepMeasuresToEnvironment() {
+		Collection<MonitorMeasure> measures;
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_STEP_FIRST_RESPONSE_DELAY)) != null) {
+			for (MonitorMeasure measure : measures)
+				for (StepResult step : stepResults)
+					monitorEnvironment.createDynamicMeasure(measure, DYNAMIC_STEP, step.name).setValue(
+							step.firstResponseTime * MILLIS);
+		}
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_STEP_RESPONSE_COMPLETE_TIME)) != null) {
+			for (MonitorMeasure measure : measures)
+				for (StepResult step : stepResults)
+					monitorEnvironment.createDynamicMeasure(measure, DYNAMIC_STEP, step.name).setValue(
+							step.responseCompleteTime * MILLIS);
+		}
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_STEP_HTTP_STATUS_CODE)) != null) {
+			for (MonitorMeasure measure : measures)
+				for (StepResult step : stepResults)
+					monitorEnvironment.createDynamicMeasure(measure, DYNAMIC_STEP, step.name).setValue(step.httpStatusCode);
+		}
+		if ((measures = monitorEnvironment.getMonitorMeasures(METRIC_GROUP, MSR_STEP_RESPONSE_SIZE)) != null) {
+			for (MonitorMeasure measure : measures)
+				for (StepResult step : stepResults)
+					monitorEnvironment.createDynamicMeasure(measure, DYNAMIC_STEP, step.name).setValue(step.inputSize);
+		}
+	}
+
+	void setHttpStatusCode(int httpStatusCode) {
+		this.httpStatusCode = httpStatusCode;
 	}
 
 	void headerResponseReceived() {
 		assert time > 0; // ensure to call setTime first
-		this.firstResponseTime = System.nanoTime() - time;
+		this.firstResponseTime = System.nanoTime() - time - poolWaitTime;
 	}
 
 	void loadResponseContentFinished() {
 		assert time > 0; // ensure to call setTime first
-		this.responseCompleteTime = System.nanoTime() - time;
+		this.responseCompleteTime = System.nanoTime() - time - poolWaitTime;
 	}
 
 	void setInputSize(int inputSize) {
@@ -160,6 +403,13 @@ public class MeasureCollector {
 		this.inputSize += inputSizeInc;
 	}
 
+	/**
+	 * adds a request sent, its sizes are taken once the response was read and closed.
+	 */
+	void addExchange(Exchange exchange) {
+		exchanges.add(exchange);
+	}
+
 	boolean isInputSizeEqualTo(long compareTo) {
 		return inputSize == compareTo;
 	}
@@ -189,6 +439,134 @@ public class MeasureCollector {
 		return inputSize;
 	}
 
+	int getHttpStatusCode() {
+		return httpStatusCode;
+	}
+
+	/**
+	 * @return the bytes received besides the content: status lines, headers and the chunk framing of all responses.
+	 */
+	int getHeaderSize() {
+		long headerSize = 0;
+		for (Exchange exchange : exchanges)
+			headerSize += exchange.getReceivedBytes() - exchange.getContentBytes();
+		return (int) headerSize;
+	}
+
+	/**
+	 * @return the bytes received for all requests, with the content as transferred.
+	 */
+	long getReceivedSize() {
+		long receivedSize = 0;
+		for (Exchange exchange : exchanges)
+			receivedSize += exchange.getReceivedBytes();
+		return receivedSize;
+	}
+
+	long getFirstResponseTime() {
+		return firstResponseTime;
+	}
+
+	long getResponseCompleteTime() {
+		return responseCompleteTime;
+	}
+
+	long getConnectionCloseDelay() {
+		return connectionCloseDelay;
+	}
+
+	/**
+	 * @return the bytes sent for all requests.
+	 */
+	int getRequestSize() {
+		long requestSize = 0;
+		for (Exchange exchange : exchanges)
+			requestSize += exchange.getSentBytes();
+		return (int) requestSize;
+	}
+
+	boolean isSocketTimedOut() {
+		return socketTimedOut;
+	}
+
+	boolean isConnectionTimedOut() {
+		return connectionTimedOut;
+	}
+
+	long getDnsLookupTime() {
+		return dnsLookupTime;
+	}
+
+	long getConnectTime() {
+		return connectTime;
+	}
+
+	/**
+	 * @return true if a TLS handshake was measured.
+	 */
+	boolean isTlsMeasured() {
+		return tlsMeasured;
+	}
+
+	long getTlsHandshakeTime() {
+		return tlsHandshakeTime;
+	}
+
+	boolean isTlsSessionResumed() {
+		return tlsSessionResumed;
+	}
+
+	/**
+	 * @return true if the expiry of the certificate was measured.
+	 */
+	boolean isCertificateMeasured() {
+		return certificateMeasured;
+	}
+
+	long getCertificateExpiry() {
+		return certificateExpiry;
+	}
+
+	/**
+	 * @return true if the connection to the proxy was measured.
+	 */
+	boolean isProxyConnected() {
+		return proxyConnected;
+	}
+
+	long getProxyConnectTime() {
+		return proxyConnectTime;
+	}
+
+	/**
+	 * @return true if the tunnel through the proxy was measured.
+	 */
+	boolean isProxyTunnelOpened() {
+		return proxyTunnelOpened;
+	}
+
+	long getProxyTunnelTime() {
+		return proxyTunnelTime;
+	}
+
+	/**
+	 * @return true if the response of the origin server through the proxy was measured.
+	 */
+	boolean isOriginResponded() {
+		return originResponded;
+	}
+
+	long getOriginResponseTime() {
+		return originResponseTime;
+	}
+
+	/**
+	 * @return the mode of an adaptive check, see {@link AdaptiveBaseline}; -1 if the check isn't adaptive.
+	 */
+	int getAdaptiveMode() {
+		return adaptiveMode;
+	}
+
 	void setSocketTimedOut()
 	{
 		this.socketTimedOut = true;
@@ -198,4 +576,149 @@ public class MeasureCollector {
 	{
 		this.connectionTimedOut = true;
 	}
+
+	void setDnsLookupTime(long dnsLookupTime) {
+		this.dnsLookupTime = dnsLookupTime;
+	}
+
+	boolean isHostReachable() {
+		return httpStatusCode > 0 || connected;
+	}
+
+	/**
+	 * sets the time to connect to the host, the host is reachable even if no request is sent.
+	 */
+	void setConnectTime(long connectTime) {
+		this.connected = true;
+		this.connectTime = connectTime;
+	}
+
+	void setTlsHandshake(long tlsHandshakeTime, boolean tlsSessionResumed) {
+		this.tlsMeasured = true;
+		this.tlsHandshakeTime = tlsHandshakeTime;
+		this.tlsSessionResumed = tlsSessionResumed;
+	}
+
+	void setCertificateExpiry(long certificateExpiry) {
+		this.certificateMeasured = true;
+		this.certificateExpiry = certificateExpiry;
+	}
+
+	void setProxyConnectTime(long proxyConnectTime) {
+		this.proxyConnected = true;
+		this.proxyConnectTime = proxyConnectTime;
+	}
+
+	void setProxyTunnelTime(long proxyTunnelTime) {
+		this.proxyTunnelOpened = true;
+		this.proxyTunnelTime = proxyTunnelTime;
+	}
+
+	void setOriginResponseTime(long originResponseTime) {
+		this.originResponded = true;
+		this.originResponseTime = originResponseTime;
+	}
+
+	void setAdaptiveMode(int adaptiveMode) {
+		this.adaptiveMode = adaptiveMode;
+	}
+
+	void setSharedClientReferences(int sharedClientReferences) {
+		this.sharedClientReferences = sharedClientReferences;
+	}
+
+	/**
+	 * adds the time a request waited for a connection of the pool, the time is excluded from the response times
+	 * measured afterwards.
+	 */
+	void addPoolWaitTime(long poolWaitTime) {
+		this.poolWaitTime += poolWaitTime;
+	}
+
+	long getPoolWaitTime() {
+		return poolWaitTime;
+	}
+
+	void setPoolStats(PoolStats poolStats) {
+		this.poolStats = poolStats;
+	}
+
+	/**
+	 * adds the result of one transaction step, the timings are relative to the start of the step.
+	 */
+	void addStepResult(String name, int httpStatusCode, long firstResponseTime, long responseCompleteTime, int inputSize) {
+		stepResults.add(new StepResult(name, httpStatusCode, firstResponseTime, responseCompleteTime, inputSize));
+	}
+
+	/**
+	 * adds one request of a redirect chain, the last hop added is the final url.
+	 */
+	void addRedirectHop(URL url, long responseTime) {
+		redirectHops.add(responseTime);
+		finalUrl = url.toString();
+	}
+
+	void addRedirectCount(int redirectCount) {
+		this.redirectCount += redirectCount;
+	}
+
+	int getRedirectCount() {
+		return redirectCount;
+	}
+
+	String getFinalUrl() {
+		return finalUrl;
+	}
+
+	/**
+	 * adds the result of probing one address of the host.
+	 *
+	 * @param failed true if the address isn't reachable or responded with a server error.
+	 */
+	void addAddressResult(String address, int httpStatusCode, long firstResponseTime, boolean failed) {
+		addressResults.add(new AddressResult(address, httpStatusCode, firstResponseTime, failed));
+	}
+
+	void addExtractedValue(String name, double value) {
+		extractedValues.put(name, value);
+	}
+
+	/**
+	 * The result of one step of a multi-step transaction.
+	 */
+	private static final class StepResult {
+
+		private final String name;
+		private final int httpStatusCode;
+		private final long firstResponseTime;
+		private final long responseCompleteTime;
+		private final int inputSize;
+
+		private StepResult(String name, int httpStatusCode, long firstResponseTime, long responseCompleteTime,
+				int inputSize) {
+			this.name = name;
+			this.httpStatusCode = httpStatusCode;
+			this.firstResponseTime = firstResponseTime;
+			this.responseCompleteTime = responseCompleteTime;
+			this.inputSize = inputSize;
+		}
+	}
+
+	/**
+	 * The result of probing one address of the host.
+	 */
+	private static final class AddressResult {
+
+		private final String address;
+		private final int httpStatusCode;
+		private final long firstResponseTime;
+		private final boolean failed;
+
+		private AddressResult(String address, int httpStatusCode, long firstResponseTime, boolean failed) {
+			this.address = address;
+			this.httpStatusCode = httpStatusCode;
+			this.firstResponseTime = firstResponseTime;
+			this.failed = failed;
+		}
+	}
 }
@@ -0,0 +1,380 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: MonitorHttpClient.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.ParseException;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.MessageConstraints;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.DefaultHttpResponseFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultHttpResponseParser;
+import org.apache.http.impl.conn.DefaultHttpResponseParserFactory;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.io.HttpMessageParser;
+import org.apache.http.io.SessionInputBuffer;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicLineParser;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.util.CharArrayBuffer;
+
+import com.dynatrace.diagnostics.httpclient.api.DynaTraceHttpClient;
+
+/**
+ * The client the requests of UrlMonitors are sent with. It is built on the settings of a {@link DynaTraceHttpClient}:
+ * certificate and host name verification, credentials, retries and user agent. Credentials stay with the
+ * DynaTraceHttpClient and may be changed there. In contrast to the client beneath the DynaTraceHttpClient, hosts are
+ * resolved through the shared {@link DnsCache}, so requests are sent to the addresses the monitor resolved and measured,
+ * and the client still falls back to further addresses of a host, which can't be connected. The pool is sized for the
+ * monitors sharing the client, see {@link #setMonitorCount(int)}. The time a request waits for a connection of the pool,
+ * the connect, the tunnel through a proxy, the TLS handshake, the response time and the bytes sent and received are
+ * recorded in its {@link Exchange}, so requests via proxy are split without a connection of their own. The SSL contexts and their session
+ * caches are shared with the {@link TlsProbe}s.
+ */
+final class MonitorHttpClient implements Closeable {
+
+	/** the pool size of a client used by a single monitor, the defaults of the http client. */
+	private static final int DEFAULT_MAX_PER_ROUTE = 2;
+	private static final int DEFAULT_MAX_TOTAL = 20;
+
+	/** the exchange of the request executed by the current thread, the pool isn't passed the context of the request. */
+	private static final ThreadLocal<Exchange> currentExchange = new ThreadLocal<Exchange>();
+
+	/** parses responses as lenient as the DynaTraceHttpClient does: invalid header lines are kept, garbage before the
+	 * status line is skipped. */
+	private static final DefaultHttpResponseParserFactory RESPONSE_PARSER_FACTORY = new DefaultHttpResponseParserFactory() {
+
+		@Override
+		public HttpMessageParser<HttpResponse> create(SessionInputBuffer buffer, MessageConstraints constraints) {
+			BasicLineParser lineParser = new BasicLineParser() {
+
+				@Override
+				public Header parseHeader(CharArrayBuffer line) {
+					try {
+						return super.parseHeader(line);
+					} catch (ParseException e) {
+						return new BasicHeader(line.toString(), null);
+					}
+				}
+			};
+			return new DefaultHttpResponseParser(buffer, lineParser, DefaultHttpResponseFactory.INSTANCE, constraints) {
+
+				@Override
+				protected boolean reject(CharArrayBuffer line, int count) {
+					return false;
+				}
+			};
+		}
+	};
+
+	private final DynaTraceHttpClient dynaTraceHttpClient;
+	private final TimedConnectionManager connManager;
+	private final CloseableHttpClient httpClient;
+
+	/**
+	 * @param dynaTraceHttpClient the settings of the client, closed with this client.
+	 */
+	MonitorHttpClient(DynaTraceHttpClient dynaTraceHttpClient) throws SSLException {
+		this.dynaTraceHttpClient = dynaTraceHttpClient;
+		Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", new TimedPlainConnectionSocketFactory())
+				.register("https", new TimedSSLConnectionSocketFactory(dynaTraceHttpClient))
+				.build();
+		connManager = new TimedConnectionManager(socketFactoryRegistry);
+		connManager.setDefaultMaxPerRoute(DEFAULT_MAX_PER_ROUTE);
+		connManager.setMaxTotal(DEFAULT_MAX_TOTAL);
+		httpClient = HttpClients.custom()
+				.setConnectionManager(connManager)
+				.setDefaultCredentialsProvider(new DelegatingCredentialsProvider())
+				.setRequestExecutor(new TimedRequestExecutor())
+				// ahead of the decoding of the content
+				.addInterceptorFirst(new ContentCountingInterceptor())
+				.setRetryHandler(new DefaultHttpRequestRetryHandler(dynaTraceHttpClient.getRetryCount(), false))
+				.setUserAgent(dynaTraceHttpClient.getUserAgent())
+				.build();
+	}
+
+	/**
+	 * sends the request, the client is thread safe.
+	 *
+	 * @param context the context of the request, holding the cookies and the authentication of the monitor. The
+	 *        {@link Exchange} of the request is added to it.
+	 * @return the response; the caller has to close it.
+	 */
+	CloseableHttpResponse execute(HttpHost target, HttpRequestBase request, HttpClientContext context)
+			throws IOException {
+		Exchange exchange = new Exchange();
+		context.setAttribute(Exchange.ATTRIBUTE, exchange);
+		currentExchange.set(exchange);
+		try {
+			return httpClient.execute(target, request, context);
+		} finally {
+			currentExchange.remove();
+		}
+	}
+
+	/**
+	 * sizes the pool for the given number of monitors sharing the client. Each monitor sends one request at a time, so
+	 * a pool with a connection per monitor doesn't make a monitor wait for another one.
+	 */
+	void setMonitorCount(int monitors) {
+		connManager.setDefaultMaxPerRoute(Math.max(DEFAULT_MAX_PER_ROUTE, monitors));
+		connManager.setMaxTotal(Math.max(DEFAULT_MAX_TOTAL, monitors));
+	}
+
+	/**
+	 * @return the leased, available and maximum connections of the pool and the number of requests waiting for one.
+	 */
+	PoolStats getPoolStats() {
+		return connManager.getTotalStats();
+	}
+
+	/**
+	 * @return the client holding the settings and the credentials.
+	 */
+	DynaTraceHttpClient getDynaTraceHttpClient() {
+		return dynaTraceHttpClient;
+	}
+
+	@Override
+	public void close() {
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		dynaTraceHttpClient.close();
+	}
+
+	/**
+	 * Pool recording the time a request waits for a connection in the exchange of the request. The bytes of a connection
+	 * are counted for the exchange until the connection is released.
+	 */
+	private static final class TimedConnectionManager extends PoolingHttpClientConnectionManager {
+
+		/** the exchanges by the leased connection they are sent on. */
+		private final Map<HttpClientConnection, Exchange> exchanges = new ConcurrentHashMap<HttpClientConnection, Exchange>();
+
+		private TimedConnectionManager(Registry<ConnectionSocketFactory> socketFactoryRegistry) {
+			super(socketFactoryRegistry, new ManagedHttpClientConnectionFactory(RESPONSE_PARSER_FACTORY),
+					DnsCache.SHARED);
+		}
+
+		@Override
+		public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+			final ConnectionRequest request = super.requestConnection(route, state);
+			final Exchange exchange = currentExchange.get();
+			if (exchange == null)
+				return request;
+			return new ConnectionRequest() {
+
+				@Override
+				public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException,
+						ExecutionException, ConnectionPoolTimeoutException {
+					long leaseStart = System.nanoTime();
+					try {
+						return request.get(timeout, tunit);
+					} finally {
+						exchange.addLeaseTime(System.nanoTime() - leaseStart);
+					}
+				}
+
+				@Override
+				public boolean cancel() {
+					return request.cancel();
+				}
+			};
+		}
+
+		/**
+		 * counts the bytes of the leased connection for the exchange until the connection is released.
+		 */
+		private void attach(HttpClientConnection managedConn, Exchange exchange) {
+			exchange.attach(managedConn.getMetrics());
+			exchanges.put(managedConn, exchange);
+		}
+
+		@Override
+		public void releaseConnection(HttpClientConnection managedConn, Object state, long keepalive, TimeUnit tunit) {
+			Exchange exchange = exchanges.remove(managedConn);
+			if (exchange != null)
+				exchange.detach();
+			super.releaseConnection(managedConn, state, keepalive, tunit);
+		}
+	}
+
+	/**
+	 * Socket factory recording the time to connect in the exchange of the request. Connections to a proxy are made by
+	 * this factory for https as well.
+	 */
+	private static final class TimedPlainConnectionSocketFactory extends PlainConnectionSocketFactory {
+
+		@Override
+		public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+				InetSocketAddress localAddress, HttpContext context) throws IOException {
+			Exchange exchange = Exchange.get(context);
+			long connectStart = System.nanoTime();
+			Socket connected = super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+			if (exchange != null)
+				exchange.setConnectTime(System.nanoTime() - connectStart);
+			return connected;
+		}
+	}
+
+	/**
+	 * Socket factory recording the TLS handshake of new connections in the exchange of the request. The certificate and
+	 * the host name are verified like the DynaTraceHttpClient does.
+	 */
+	private static final class TimedSSLConnectionSocketFactory extends SSLConnectionSocketFactory {
+
+		private TimedSSLConnectionSocketFactory(DynaTraceHttpClient client) throws SSLException {
+			super(TlsProbe.getContext(client), client.getHostnameVerificationMode().getHostnameVerifier());
+		}
+
+		@Override
+		public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+				throws IOException {
+			Exchange exchange = Exchange.get(context);
+			if (exchange == null)
+				return super.createLayeredSocket(socket, target, port, context);
+			long start = System.currentTimeMillis();
+			long handshakeStart = System.nanoTime();
+			SSLSocket sslSocket = (SSLSocket) super.createLayeredSocket(socket, target, port, context);
+			// a resumed session was created by an earlier handshake
+			exchange.setTlsHandshake(System.nanoTime() - handshakeStart,
+					sslSocket.getSession().getCreationTime() < start);
+			return sslSocket;
+		}
+	}
+
+	/**
+	 * Executor recording the connection a request is sent on and the time until the response header arrived in the
+	 * exchange of the request. The CONNECT requests of a tunnel are recorded as tunnel time.
+	 */
+	private final class TimedRequestExecutor extends HttpRequestExecutor {
+
+		@Override
+		public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+				throws IOException, HttpException {
+			Exchange exchange = Exchange.get(context);
+			if (exchange == null)
+				return super.execute(request, conn, context);
+			boolean tunnel = "CONNECT".equals(request.getRequestLine().getMethod());
+			if (!tunnel) {
+				connManager.attach(conn, exchange);
+				// the CONNECT requests of a tunnel are sent before the TLS handshake
+				if (conn instanceof ManagedHttpClientConnection)
+					exchange.setSslSession(((ManagedHttpClientConnection) conn).getSSLSession());
+			}
+			long requestStart = System.nanoTime();
+			HttpResponse response = super.execute(request, conn, context);
+			if (tunnel)
+				exchange.addTunnelTime(System.nanoTime() - requestStart);
+			else
+				exchange.setResponseTime(System.nanoTime() - requestStart);
+			return response;
+		}
+	}
+
+	/**
+	 * Counts the bytes of the response content as received in the exchange of the request.
+	 */
+	private static final class ContentCountingInterceptor implements HttpResponseInterceptor {
+
+		@Override
+		public void process(HttpResponse response, HttpContext context) {
+			final Exchange exchange = Exchange.get(context);
+			if (exchange == null || response.getEntity() == null)
+				return;
+			response.setEntity(new HttpEntityWrapper(response.getEntity()) {
+
+				@Override
+				public InputStream getContent() throws IOException {
+					return new FilterInputStream(super.getContent()) {
+
+						@Override
+						public int read() throws IOException {
+							int b = super.read();
+							if (b >= 0)
+								exchange.addContentBytes(1);
+							return b;
+						}
+
+						@Override
+						public int read(byte[] b, int off, int len) throws IOException {
+							int n = super.read(b, off, len);
+							if (n > 0)
+								exchange.addContentBytes(n);
+							return n;
+						}
+					};
+				}
+			});
+		}
+	}
+
+	/**
+	 * looks up the credentials in the DynaTraceHttpClient, so credentials set there are used right away.
+	 */
+	private final class DelegatingCredentialsProvider implements CredentialsProvider {
+
+		@Override
+		public void setCredentials(AuthScope authscope, Credentials credentials) {
+			throw new UnsupportedOperationException("credentials are set by the DynaTraceHttpClient");
+		}
+
+		@Override
+		public Credentials getCredentials(AuthScope authscope) {
+			return dynaTraceHttpClient.getCredentials(authscope.getHost(), authscope.getPort());
+		}
+
+		@Override
+		public void clear() {
+			dynaTraceHttpClient.clearUserCredentials();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: RawHttp.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.apache.http.HttpHeaders;
+
+/**
+ * Minimal HTTP/1.1 messages written and read on plain sockets by the probes, which bypass the http client. Requests
+ * (except CONNECT) are sent with <code>Connection: close</code>, responses are only read up to the status line or the end
+ * of the header. Responses are read byte by byte, the callers pass buffered streams.
+ */
+final class RawHttp {
+
+	static final String METHOD_CONNECT = "CONNECT";
+
+	private static final int MAX_LINE_LENGTH = 8192;
+
+	private RawHttp() {
+	}
+
+	/**
+	 * @return the request target of a request sent to the origin server, e.g. /path?query.
+	 */
+	static String getOriginForm(URL url) {
+		return url.getFile().isEmpty() ? "/" : url.getFile();
+	}
+
+	/**
+	 * @return the host and port of the url as used in the Host header, the port is omitted if the url doesn't specify one.
+	 */
+	static String getHostHeader(URL url) {
+		return url.getPort() < 0 ? url.getHost() : url.getHost() + ":" + url.getPort();
+	}
+
+	/**
+	 * writes a request without content.
+	 *
+	 * @param target the request target, e.g. the path or the absolute url for a proxy.
+	 * @param host the value of the Host header.
+	 * @param headers additional request headers.
+	 */
+	static void writeRequest(OutputStream out, String method, String target, String host, Map<String, String> headers)
+			throws IOException {
+		StringBuilder request = new StringBuilder();
+		request.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+		request.append(HttpHeaders.HOST).append(": ").append(host).append("\r\n");
+		for (Map.Entry<String, String> header : headers.entrySet())
+			request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		// the connection of a tunnel has to stay open
+		if (!METHOD_CONNECT.equals(method))
+			request.append(HttpHeaders.CONNECTION).append(": close\r\n");
+		request.append("\r\n");
+		out.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+		out.flush();
+	}
+
+	/**
+	 * reads the status line of a response, e.g. HTTP/1.1 200 OK.
+	 *
+	 * @return the status code.
+	 */
+	static int readStatusCode(InputStream in) throws IOException {
+		String line = readLine(in);
+		String[] parts = line.split(" ", 3);
+		if (parts.length < 2 || !parts[0].startsWith("HTTP/"))
+			throw new IOException("Invalid status line: " + line);
+		try {
+			return Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid status line: " + line, e);
+		}
+	}
+
+	/**
+	 * reads the header lines following the status line up to the empty line terminating the header.
+	 */
+	static void skipHeader(InputStream in) throws IOException {
+		while (!readLine(in).isEmpty()) {
+			// skip
+		}
+	}
+
+	/**
+	 * reads one line terminated by CRLF or LF.
+	 *
+	 * @return the line without line terminator.
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c < 0)
+				throw new IOException("Connection closed by server");
+			if (line.length() == MAX_LINE_LENGTH)
+				throw new IOException("Line too long");
+			line.append((char) c);
+		}
+		int length = line.length();
+		if (length > 0 && line.charAt(length - 1) == '\r')
+			line.setLength(length - 1);
+		return line.toString();
+	}
+}
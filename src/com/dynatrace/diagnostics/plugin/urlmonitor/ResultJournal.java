@@ -0,0 +1,476 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: ResultJournal.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.dynatrace.diagnostics.pdk.Status;
+
+/**
+ * Journal of the results of every execution of one UrlMonitor, kept in a local file of fixed size. The file is a ring of
+ * fixed size records, which is memory mapped once, so appending a record is a memory write without any file I/O. Once
+ * the journal is full, the oldest records are overwritten. The file is only forced to disk when the journal is closed,
+ * otherwise the operating system writes the mapped pages, so records survive a restart of the collector, but not
+ * necessarily a crash of the machine. The file is locked while it is open, so it isn't written by two monitors.
+ * <p>
+ * A record holds the fixed measures of an execution, the measures split by step, hop, address or extracted value
+ * aren't journaled. Journals are read by a {@link Reader}, e.g. to compute percentiles of single executions or to
+ * backfill results missed by the server; {@link ResultJournalPrinter} prints a journal as CSV.
+ */
+public final class ResultJournal {
+
+	private static final Logger log = Logger.getLogger(ResultJournal.class.getName());
+
+	/** the status of an execution as stored in the journal, independent of the order of {@link Status.StatusCode}. */
+	public static final int STATUS_SUCCESS = 0;
+	public static final int STATUS_PARTIAL_SUCCESS = 1;
+	/** any other status code. */
+	public static final int STATUS_ERROR = 2;
+
+	private static final int MAGIC = 0x554D4A31; // UMJ1
+	private static final int VERSION = 1;
+
+	// header layout: magic, version, record size, capacity, number of records appended
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+	private static final int COUNT_OFFSET = 16;
+
+	// record layout
+	private static final int TIMESTAMP = 0;
+	private static final int STATUS = 8;
+	private static final int HTTP_STATUS_CODE = 12;
+	private static final int FLAGS = 16;
+	private static final int HEADER_BYTES = 20;
+	private static final int RESPONSE_BYTES = 24;
+	private static final int REQUEST_BYTES = 28;
+	private static final int REDIRECT_COUNT = 32;
+	private static final int ADAPTIVE_MODE = 36;
+	private static final int FIRST_RESPONSE_TIME = 40;
+	private static final int RESPONSE_COMPLETE_TIME = 48;
+	private static final int CONNECTION_CLOSE_DELAY = 56;
+	private static final int DNS_LOOKUP_TIME = 64;
+	private static final int CONNECT_TIME = 72;
+	private static final int TLS_HANDSHAKE_TIME = 80;
+	private static final int CERTIFICATE_EXPIRY = 88;
+	private static final int PROXY_CONNECT_TIME = 96;
+	private static final int PROXY_TUNNEL_TIME = 104;
+	private static final int ORIGIN_RESPONSE_TIME = 112;
+	private static final int RECORD_SIZE = 120;
+
+	private static final int FLAG_HOST_REACHABLE = 1;
+	private static final int FLAG_CONTENT_VERIFIED = 1 << 1;
+	private static final int FLAG_SOCKET_TIMED_OUT = 1 << 2;
+	private static final int FLAG_CONNECTION_TIMED_OUT = 1 << 3;
+	private static final int FLAG_TLS_MEASURED = 1 << 4;
+	private static final int FLAG_TLS_SESSION_RESUMED = 1 << 5;
+	private static final int FLAG_CERTIFICATE_MEASURED = 1 << 6;
+	private static final int FLAG_PROXY_CONNECTED = 1 << 7;
+	private static final int FLAG_PROXY_TUNNEL_OPENED = 1 << 8;
+	private static final int FLAG_ORIGIN_RESPONDED = 1 << 9;
+
+	/** the journal is read into one buffer. */
+	private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+	private final File file;
+	private final int capacity;
+	/** the open file, holding the lock. */
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+	/** the number of records appended, including overwritten ones. */
+	private long count;
+	/** true if the file is closed and unmapped, the buffer must not be accessed anymore. */
+	private boolean closed = false;
+
+	private ResultJournal(File file, int capacity, RandomAccessFile raf, MappedByteBuffer buffer, long count) {
+		this.file = file;
+		this.capacity = capacity;
+		this.raf = raf;
+		this.buffer = buffer;
+		this.count = count;
+	}
+
+	/**
+	 * opens and locks the journal file, the file is created if it doesn't exist. An existing journal with a different
+	 * capacity or format is started over.
+	 *
+	 * @param capacity the maximum number of records kept.
+	 * @throws IOException if the file can't be opened or is locked by another journal.
+	 */
+	static ResultJournal open(File file, int capacity) throws IOException {
+		if (capacity <= 0 || capacity > MAX_CAPACITY)
+			throw new IllegalArgumentException("Invalid journal capacity: " + capacity + ", expected 1 to " + MAX_CAPACITY);
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Creating directory " + parent + " failed");
+		long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		boolean opened = false;
+		try {
+			lock(raf.getChannel(), file);
+			boolean resume = raf.length() == size;
+			raf.setLength(size);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			long count = 0;
+			if (resume && isValidHeader(buffer, capacity)) {
+				count = buffer.getLong(COUNT_OFFSET);
+			} else {
+				buffer.putInt(0, MAGIC);
+				buffer.putInt(4, VERSION);
+				buffer.putInt(8, RECORD_SIZE);
+				buffer.putInt(12, capacity);
+				buffer.putLong(COUNT_OFFSET, 0);
+			}
+			opened = true;
+			return new ResultJournal(file, capacity, raf, buffer, count);
+		} finally {
+			if (!opened)
+				raf.close();
+		}
+	}
+
+	/**
+	 * locks the file until it is closed. The lock covers a range beyond the end of the file, which is never written, so
+	 * readers aren't blocked on platforms with mandatory locks.
+	 */
+	private static void lock(FileChannel channel, File file) throws IOException {
+		FileLock lock;
+		try {
+			lock = channel.tryLock(Long.MAX_VALUE - 1, 1, false);
+		} catch (OverlappingFileLockException e) {
+			// locked by this JVM
+			lock = null;
+		}
+		if (lock == null)
+			throw new IOException("Journal file " + file + " is used by another monitor");
+	}
+
+	private static boolean isValidHeader(ByteBuffer buffer, int capacity) {
+		return buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getInt(8) == RECORD_SIZE &&
+				buffer.getInt(12) == capacity && buffer.getLong(COUNT_OFFSET) >= 0;
+	}
+
+	/**
+	 * @return true if this journal is written to the given file with the given capacity.
+	 */
+	boolean isOpenedAs(File file, int capacity) {
+		return this.file.equals(file) && this.capacity == capacity;
+	}
+
+	/**
+	 * appends the result of one execution, the oldest record is overwritten if the journal is full.
+	 *
+	 * @param timestamp the start of the execution in milliseconds.
+	 */
+	synchronized void append(long timestamp, Status.StatusCode status, MeasureCollector measureCollector) {
+		if (closed)
+			return;
+		int offset = HEADER_SIZE + (int) (count % capacity) * RECORD_SIZE;
+		int flags = 0;
+		if (measureCollector.isHostReachable())
+			flags |= FLAG_HOST_REACHABLE;
+		if (measureCollector.isVerified())
+			flags |= FLAG_CONTENT_VERIFIED;
+		if (measureCollector.isSocketTimedOut())
+			flags |= FLAG_SOCKET_TIMED_OUT;
+		if (measureCollector.isConnectionTimedOut())
+			flags |= FLAG_CONNECTION_TIMED_OUT;
+		if (measureCollector.isTlsMeasured())
+			flags |= FLAG_TLS_MEASURED;
+		if (measureCollector.isTlsSessionResumed())
+			flags |= FLAG_TLS_SESSION_RESUMED;
+		if (measureCollector.isCertificateMeasured())
+			flags |= FLAG_CERTIFICATE_MEASURED;
+		if (measureCollector.isProxyConnected())
+			flags |= FLAG_PROXY_CONNECTED;
+		if (measureCollector.isProxyTunnelOpened())
+			flags |= FLAG_PROXY_TUNNEL_OPENED;
+		if (measureCollector.isOriginResponded())
+			flags |= FLAG_ORIGIN_RESPONDED;
+		buffer.putLong(offset + TIMESTAMP, timestamp);
+		buffer.putInt(offset + STATUS, toJournalStatus(status));
+		buffer.putInt(offset + HTTP_STATUS_CODE, measureCollector.getHttpStatusCode());
+		buffer.putInt(offset + FLAGS, flags);
+		buffer.putInt(offset + HEADER_BYTES, measureCollector.getHeaderSize());
+		buffer.putInt(offset + RESPONSE_BYTES, measureCollector.getInputSize());
+		buffer.putInt(offset + REQUEST_BYTES, measureCollector.getRequestSize());
+		buffer.putInt(offset + REDIRECT_COUNT, measureCollector.getRedirectCount());
+		buffer.putInt(offset + ADAPTIVE_MODE, measureCollector.getAdaptiveMode());
+		buffer.putLong(offset + FIRST_RESPONSE_TIME, measureCollector.getFirstResponseTime());
+		buffer.putLong(offset + RESPONSE_COMPLETE_TIME, measureCollector.getResponseCompleteTime());
+		buffer.putLong(offset + CONNECTION_CLOSE_DELAY, measureCollector.getConnectionCloseDelay());
+		buffer.putLong(offset + DNS_LOOKUP_TIME, measureCollector.getDnsLookupTime());
+		buffer.putLong(offset + CONNECT_TIME, measureCollector.getConnectTime());
+		buffer.putLong(offset + TLS_HANDSHAKE_TIME, measureCollector.getTlsHandshakeTime());
+		buffer.putLong(offset + CERTIFICATE_EXPIRY, measureCollector.getCertificateExpiry());
+		buffer.putLong(offset + PROXY_CONNECT_TIME, measureCollector.getProxyConnectTime());
+		buffer.putLong(offset + PROXY_TUNNEL_TIME, measureCollector.getProxyTunnelTime());
+		buffer.putLong(offset + ORIGIN_RESPONSE_TIME, measureCollector.getOriginResponseTime());
+		// the record is complete before it is counted
+		buffer.putLong(COUNT_OFFSET, ++count);
+	}
+
+	private static int toJournalStatus(Status.StatusCode status) {
+		if (status == Status.StatusCode.Success)
+			return STATUS_SUCCESS;
+		if (status == Status.StatusCode.PartialSuccess)
+			return STATUS_PARTIAL_SUCCESS;
+		return STATUS_ERROR;
+	}
+
+	/**
+	 * forces the records to disk, unmaps and closes the file. Further records aren't appended.
+	 */
+	synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			buffer.force();
+		} catch (RuntimeException e) {
+			log.log(Level.FINE, "forcing journal " + file + " failed", e);
+		}
+		unmap(buffer);
+		try {
+			// releases the lock
+			raf.close();
+		} catch (IOException e) {
+			log.log(Level.FINE, "closing journal " + file + " failed", e);
+		}
+	}
+
+	/**
+	 * releases the mapping right away instead of when the buffer is garbage collected, so the file can be opened again,
+	 * e.g. with another capacity, or deleted on Windows. There's no public API for this, the cleaner is invoked by
+	 * reflection through sun.misc.Unsafe. Within the OSGi container this only works if the framework delegates sun.*
+	 * to the boot class loader (org.osgi.framework.bootdelegation), otherwise it fails silently, apart from a FINE log
+	 * entry, and the file stays mapped until the buffer is garbage collected.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			try {
+				// Java 9 and later
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			} catch (NoSuchMethodException e) {
+				// Java 8: sun.nio.ch.DirectBuffer.cleaner()
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null)
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			log.log(Level.FINE, "unmapping journal failed, the mapping is released by the garbage collector", e);
+		}
+	}
+
+	/**
+	 * Read access to a journal file, records are indexed from the oldest (0) to the latest (size - 1).
+	 */
+	public static final class Reader {
+
+		private final ByteBuffer buffer;
+		private final int capacity;
+		private final int size;
+		private final int first;
+
+		private Reader(ByteBuffer buffer) throws IOException {
+			if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION ||
+					buffer.getInt(8) != RECORD_SIZE)
+				throw new IOException("Not a URL Monitor journal");
+			this.buffer = buffer;
+			this.capacity = buffer.getInt(12);
+			long count = buffer.getLong(COUNT_OFFSET);
+			if (capacity <= 0 || count < 0 || buffer.limit() < HEADER_SIZE + (long) capacity * RECORD_SIZE)
+				throw new IOException("Corrupt URL Monitor journal");
+			this.size = (int) Math.min(count, capacity);
+			this.first = (int) (count <= capacity ? 0 : count % capacity);
+		}
+
+		/**
+		 * reads a snapshot of the journal file, the file may be written while it is read.
+		 */
+		public static Reader open(File file) throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+					// read the whole file
+				}
+				return new Reader(buffer);
+			} finally {
+				raf.close();
+			}
+		}
+
+		/**
+		 * @return the number of records in the journal.
+		 */
+		public int size() {
+			return size;
+		}
+
+		private int offset(int index) {
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+			return HEADER_SIZE + ((first + index) % capacity) * RECORD_SIZE;
+		}
+
+		/**
+		 * @return the start of the execution in milliseconds since the epoch.
+		 */
+		public long getTimestamp(int index) {
+			return buffer.getLong(offset(index) + TIMESTAMP);
+		}
+
+		/**
+		 * @return the status of the execution, {@link ResultJournal#STATUS_SUCCESS},
+		 *         {@link ResultJournal#STATUS_PARTIAL_SUCCESS} or {@link ResultJournal#STATUS_ERROR}.
+		 */
+		public int getStatus(int index) {
+			return buffer.getInt(offset(index) + STATUS);
+		}
+
+		public int getHttpStatusCode(int index) {
+			return buffer.getInt(offset(index) + HTTP_STATUS_CODE);
+		}
+
+		public boolean isHostReachable(int index) {
+			return isFlagSet(index, FLAG_HOST_REACHABLE);
+		}
+
+		public boolean isContentVerified(int index) {
+			return isFlagSet(index, FLAG_CONTENT_VERIFIED);
+		}
+
+		public boolean isSocketTimedOut(int index) {
+			return isFlagSet(index, FLAG_SOCKET_TIMED_OUT);
+		}
+
+		public boolean isConnectionTimedOut(int index) {
+			return isFlagSet(index, FLAG_CONNECTION_TIMED_OUT);
+		}
+
+		/**
+		 * @return true if the TLS handshake time and session resumption were measured.
+		 */
+		public boolean isTlsMeasured(int index) {
+			return isFlagSet(index, FLAG_TLS_MEASURED);
+		}
+
+		public boolean isTlsSessionResumed(int index) {
+			return isFlagSet(index, FLAG_TLS_SESSION_RESUMED);
+		}
+
+		/**
+		 * @return true if the certificate expiry was measured.
+		 */
+		public boolean isCertificateMeasured(int index) {
+			return isFlagSet(index, FLAG_CERTIFICATE_MEASURED);
+		}
+
+		public int getHeaderSize(int index) {
+			return buffer.getInt(offset(index) + HEADER_BYTES);
+		}
+
+		public int getResponseSize(int index) {
+			return buffer.getInt(offset(index) + RESPONSE_BYTES);
+		}
+
+		public int getRequestSize(int index) {
+			return buffer.getInt(offset(index) + REQUEST_BYTES);
+		}
+
+		public int getRedirectCount(int index) {
+			return buffer.getInt(offset(index) + REDIRECT_COUNT);
+		}
+
+		/** @return the mode of an adaptive check, see {@link AdaptiveBaseline}; -1 if the check wasn't adaptive. */
+		public int getAdaptiveMode(int index) {
+			return buffer.getInt(offset(index) + ADAPTIVE_MODE);
+		}
+
+		/** @return the first response delay in nanoseconds. */
+		public long getFirstResponseTime(int index) {
+			return buffer.getLong(offset(index) + FIRST_RESPONSE_TIME);
+		}
+
+		/** @return the response complete time in nanoseconds. */
+		public long getResponseCompleteTime(int index) {
+			return buffer.getLong(offset(index) + RESPONSE_COMPLETE_TIME);
+		}
+
+		/** @return the connection close delay in nanoseconds. */
+		public long getConnectionCloseDelay(int index) {
+			return buffer.getLong(offset(index) + CONNECTION_CLOSE_DELAY);
+		}
+
+		/** @return the DNS lookup time in nanoseconds. */
+		public long getDnsLookupTime(int index) {
+			return buffer.getLong(offset(index) + DNS_LOOKUP_TIME);
+		}
+
+		/** @return the connect time of connect only probes in nanoseconds. */
+		public long getConnectTime(int index) {
+			return buffer.getLong(offset(index) + CONNECT_TIME);
+		}
+
+		/** @return the TLS handshake time in nanoseconds. */
+		public long getTlsHandshakeTime(int index) {
+			return buffer.getLong(offset(index) + TLS_HANDSHAKE_TIME);
+		}
+
+		/** @return the time until the certificate expires in milliseconds. */
+		public long getCertificateExpiry(int index) {
+			return buffer.getLong(offset(index) + CERTIFICATE_EXPIRY);
+		}
+
+		public boolean isProxyConnected(int index) {
+			return isFlagSet(index, FLAG_PROXY_CONNECTED);
+		}
+
+		/** @return the time to connect to the proxy in nanoseconds. */
+		public long getProxyConnectTime(int index) {
+			return buffer.getLong(offset(index) + PROXY_CONNECT_TIME);
+		}
+
+		public boolean isProxyTunnelOpened(int index) {
+			return isFlagSet(index, FLAG_PROXY_TUNNEL_OPENED);
+		}
+
+		/** @return the time to open the tunnel through the proxy in nanoseconds. */
+		public long getProxyTunnelTime(int index) {
+			return buffer.getLong(offset(index) + PROXY_TUNNEL_TIME);
+		}
+
+		public boolean isOriginResponded(int index) {
+			return isFlagSet(index, FLAG_ORIGIN_RESPONDED);
+		}
+
+		/** @return the response time of the origin server through the proxy in nanoseconds. */
+		public long getOriginResponseTime(int index) {
+			return buffer.getLong(offset(index) + ORIGIN_RESPONSE_TIME);
+		}
+
+		private boolean isFlagSet(int index, int flag) {
+			return (buffer.getInt(offset(index) + FLAGS) & flag) != 0;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: ResultJournalPrinter.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Command line tool printing a {@link ResultJournal} as CSV, times in milliseconds:
+ * <code>java com.dynatrace.diagnostics.plugin.urlmonitor.ResultJournalPrinter &lt;file&gt;</code>. The journal may be
+ * written by a running monitor while it is printed.
+ */
+public final class ResultJournalPrinter {
+
+	private static final double MILLIS = 0.000001;
+	private static final double DAYS = 1.0 / (24 * 60 * 60 * 1000);
+
+	private ResultJournalPrinter() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: java " + ResultJournalPrinter.class.getName() + " <journal file>");
+			return;
+		}
+		printCsv(ResultJournal.Reader.open(new File(args[0])), System.out);
+	}
+
+	/**
+	 * prints the records as CSV, measures which weren't measured are left empty.
+	 */
+	static void printCsv(ResultJournal.Reader journal, PrintStream out) {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+		out.println("timestamp,status,httpStatusCode,hostReachable,contentVerified,socketTimedOut,connectionTimedOut,"
+				+ "headerSize,responseSize,requestSize,redirectCount,firstResponseDelay,responseCompleteTime,"
+				+ "connectionCloseDelay,dnsLookupTime,connectTime,tlsHandshakeTime,tlsSessionResumed,"
+				+ "certificateExpiryDays,proxyConnectTime,proxyTunnelTime,originResponseTime,adaptiveMode");
+		for (int i = 0; i < journal.size(); i++) {
+			StringBuilder line = new StringBuilder();
+			line.append(dateFormat.format(new Date(journal.getTimestamp(i)))).append(',')
+					.append(getStatusName(journal.getStatus(i))).append(',').append(journal.getHttpStatusCode(i))
+					.append(',').append(journal.isHostReachable(i) ? 1 : 0).append(',')
+					.append(journal.isContentVerified(i) ? 1 : 0).append(',').append(journal.isSocketTimedOut(i) ? 1 : 0)
+					.append(',').append(journal.isConnectionTimedOut(i) ? 1 : 0).append(',')
+					.append(journal.getHeaderSize(i)).append(',').append(journal.getResponseSize(i)).append(',')
+					.append(journal.getRequestSize(i)).append(',').append(journal.getRedirectCount(i)).append(',')
+					.append(journal.getFirstResponseTime(i) * MILLIS).append(',')
+					.append(journal.getResponseCompleteTime(i) * MILLIS).append(',')
+					.append(journal.getConnectionCloseDelay(i) * MILLIS).append(',')
+					.append(journal.getDnsLookupTime(i) * MILLIS).append(',').append(journal.getConnectTime(i) * MILLIS)
+					.append(',');
+			if (journal.isTlsMeasured(i))
+				line.append(journal.getTlsHandshakeTime(i) * MILLIS).append(',')
+						.append(journal.isTlsSessionResumed(i) ? 1 : 0);
+			else
+				line.append(',');
+			line.append(',');
+			if (journal.isCertificateMeasured(i))
+				line.append(journal.getCertificateExpiry(i) * DAYS);
+			line.append(',');
+			if (journal.isProxyConnected(i))
+				line.append(journal.getProxyConnectTime(i) * MILLIS);
+			line.append(',');
+			if (journal.isProxyTunnelOpened(i))
+				line.append(journal.getProxyTunnelTime(i) * MILLIS);
+			line.append(',');
+			if (journal.isOriginResponded(i))
+				line.append(journal.getOriginResponseTime(i) * MILLIS);
+			line.append(',');
+			if (journal.getAdaptiveMode(i) >= 0)
+				line.append(journal.getAdaptiveMode(i));
+			out.println(line);
+		}
+	}
+
+	private static String getStatusName(int status) {
+		switch (status) {
+		case ResultJournal.STATUS_SUCCESS:
+			return "Success";
+		case ResultJournal.STATUS_PARTIAL_SUCCESS:
+			return "PartialSuccess";
+		default:
+			return "Error";
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: TlsProbe.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.conn.util.InetAddressUtils;
+
+import com.dynatrace.diagnostics.httpclient.api.DynaTraceHttpClient;
+import com.dynatrace.diagnostics.httpclient.api.enums.SSLCertificateMode;
+
+/**
+ * TLS handshake on a socket of its own, for connections without a request. The certificate and the host name are
+ * verified like the given http client does. The SSL contexts are shared by all UrlMonitors and their
+ * {@link MonitorHttpClient}s, their client session caches are bounded, so sessions of hosts connected repeatedly are
+ * resumed instead of doing a full handshake on every execution.
+ */
+final class TlsProbe {
+
+	private static final int SESSION_CACHE_SIZE = 1024;
+	private static final int SESSION_TIMEOUT_SECS = 3600;
+
+	/** the contexts of clients without key store by certificate mode. */
+	private static final Map<SSLCertificateMode, SSLContext> contexts = new EnumMap<SSLCertificateMode, SSLContext>(
+			SSLCertificateMode.class);
+
+	private final SSLSocket socket;
+	private final long handshakeTime;
+	private final boolean resumed;
+
+	private TlsProbe(SSLSocket socket, long handshakeTime, boolean resumed) {
+		this.socket = socket;
+		this.handshakeTime = handshakeTime;
+		this.resumed = resumed;
+	}
+
+	/**
+	 * performs the TLS handshake on a connected socket.
+	 *
+	 * @param plain the connected socket, closed with the probe.
+	 * @param host the host name sent as SNI and verified against the certificate.
+	 * @param client the http client, whose certificate and host name verification is used.
+	 * @return the connected probe; the caller has to close it.
+	 */
+	static TlsProbe handshake(Socket plain, String host, int port, DynaTraceHttpClient client) throws IOException {
+		SSLSocket socket;
+		try {
+			socket = (SSLSocket) getContext(client).getSocketFactory().createSocket(plain, host, port, true);
+		} catch (IOException e) {
+			plain.close();
+			throw e;
+		}
+		try {
+			SSLParameters parameters = socket.getSSLParameters();
+			if (!InetAddressUtils.isIPv4Address(host) && !InetAddressUtils.isIPv6Address(host))
+				parameters.setServerNames(Collections.singletonList(new SNIHostName(host)));
+			socket.setSSLParameters(parameters);
+
+			long start = System.currentTimeMillis();
+			long handshakeStart = System.nanoTime();
+			socket.startHandshake();
+			long handshakeTime = System.nanoTime() - handshakeStart;
+			client.getHostnameVerificationMode().getHostnameVerifier().verify(host, socket);
+			// a resumed session was created by an earlier handshake
+			boolean resumed = socket.getSession().getCreationTime() < start;
+			return new TlsProbe(socket, handshakeTime, resumed);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		} catch (RuntimeException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the shared context for the certificate mode of the client; a context of its own if the client uses a key
+	 *         store, so sessions of these clients aren't shared.
+	 */
+	static SSLContext getContext(DynaTraceHttpClient client) throws SSLException {
+		if (client.getKeyStore() != null)
+			return createContext(client);
+		synchronized (contexts) {
+			SSLContext context = contexts.get(client.getCertificateMode());
+			if (context == null) {
+				context = createContext(client);
+				contexts.put(client.getCertificateMode(), context);
+			}
+			return context;
+		}
+	}
+
+	private static SSLContext createContext(DynaTraceHttpClient client) throws SSLException {
+		try {
+			// the same trust material as the client, see DynaTraceHttpClient
+			SSLContext context = client.getCertificateMode().createSSLContext(client.getKeyStore(),
+					client.getCertificateAlias(), null);
+			context.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+			context.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECS);
+			return context;
+		} catch (GeneralSecurityException e) {
+			throw new SSLException("Creating SSL context failed: " + e.getMessage(), e);
+		}
+	}
+
+	SSLSocket getSocket() {
+		return socket;
+	}
+
+	/**
+	 * @return the duration of the handshake in nanoseconds.
+	 */
+	long getHandshakeTime() {
+		return handshakeTime;
+	}
+
+	/**
+	 * @return true if a cached session was resumed, false if a full handshake was done.
+	 */
+	boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * reads data sent by the server after the handshake. With TLS 1.3 the server sends the ticket to resume the session
+	 * after the handshake, which is only processed while reading, so a probe sending no request has to read it to allow
+	 * the next probe to resume the session. The ticket arrives about a round trip after the handshake, which took at
+	 * least one round trip, so it is waited for as long as the handshake took.
+	 */
+	void readSessionTicket() {
+		if (!"TLSv1.3".equals(socket.getSession().getProtocol()))
+			return;
+		try {
+			socket.setSoTimeout((int) (handshakeTime / 1000000) + 1);
+			socket.getInputStream().read();
+		} catch (SocketTimeoutException e) {
+			// expected, the server waits for a request
+		} catch (IOException e) {
+			// the next probe does a full handshake
+		}
+	}
+
+	void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: TransactionStep.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.dynatrace.diagnostics.httpclient.api.enums.RequestType;
+
+/**
+ * One request of a multi-step transaction. A transaction is configured one step per line:
+ *
+ * <pre>
+ * name: METHOD path [postData] [=&gt; variable=regex]...
+ * </pre>
+ *
+ * e.g.
+ *
+ * <pre>
+ * login: POST /login user=monitor&amp;password=secret =&gt; token="token":"([^"]+)"
+ * home: GET /home?token=${token}
+ * </pre>
+ *
+ * The path is resolved relative to the monitors url. Values extracted by the regex (first group, or the whole match if
+ * the regex has no group) can be used in path and postData of later steps as ${variable}. Variables are URL encoded in
+ * the path and form encoded in the postData, which is sent as application/x-www-form-urlencoded. An extraction starts
+ * with =&gt; after a blank, followed by the variable name and =, so a regex may contain =&gt; itself.
+ */
+final class TransactionStep {
+
+	/** the separator of the extractions, only if followed by the name of a variable and =. */
+	private static final Pattern EXTRACTION_SEPARATOR = Pattern.compile("\\s+=>\\s*(?=\\w+\\s*=)");
+	private static final Pattern VARIABLE = Pattern.compile("\\$\\{(\\w+)\\}");
+
+	private final String name;
+	private final RequestType method;
+	private final String path;
+	/** the postData sent with a post Request; null if no data should be sent. */
+	private final String postData;
+	private final List<Extraction> extractions;
+
+	private TransactionStep(String name, RequestType method, String path, String postData, List<Extraction> extractions) {
+		this.name = name;
+		this.method = method;
+		this.path = path;
+		this.postData = postData;
+		this.extractions = extractions;
+	}
+
+	/**
+	 * parses the steps of a transaction, empty lines are ignored.
+	 *
+	 * @throws IllegalArgumentException if a step has an invalid format.
+	 */
+	static List<TransactionStep> parse(String transaction) {
+		List<TransactionStep> steps = new ArrayList<TransactionStep>();
+		for (String line : transaction.split("\r?\n")) {
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
+			steps.add(parseStep(line, steps.size() + 1));
+		}
+		if (steps.isEmpty())
+			throw new IllegalArgumentException("Transaction doesn't contain any step.");
+		return steps;
+	}
+
+	private static TransactionStep parseStep(String line, int number) {
+		List<Extraction> extractions = new ArrayList<Extraction>();
+		String[] parts = EXTRACTION_SEPARATOR.split(line);
+		for (int i = 1; i < parts.length; i++) {
+			String extraction = parts[i].trim();
+			int separator = extraction.indexOf('=');
+			if (separator < 1)
+				throw new IllegalArgumentException("Invalid extraction in step " + number + ": " + extraction +
+						", expected format: variable=regex");
+			try {
+				extractions.add(new Extraction(extraction.substring(0, separator).trim(),
+						Pattern.compile(extraction.substring(separator + 1).trim())));
+			} catch (PatternSyntaxException e) {
+				throw new IllegalArgumentException("Invalid regex in step " + number + ": " + e.getMessage(), e);
+			}
+		}
+
+		String request = parts[0].trim();
+		String name = "Step " + number;
+		int nameSeparator = request.indexOf(": ");
+		// the name is optional, a step may start with the method
+		if (nameSeparator > 0 && getMethod(request.split("\\s+", 2)[0]) == null) {
+			name = request.substring(0, nameSeparator).trim();
+			request = request.substring(nameSeparator + 2).trim();
+		}
+		String[] tokens = request.split("\\s+", 3);
+		if (tokens.length < 2)
+			throw new IllegalArgumentException("Invalid step " + number + ": " + line +
+					", expected format: name: METHOD path [postData]");
+		RequestType method = getMethod(tokens[0]);
+		if (method == null)
+			throw new IllegalArgumentException("Invalid method in step " + number + ": " + tokens[0] +
+					", expected GET, HEAD or POST");
+		String postData = tokens.length > 2 ? tokens[2] : null;
+		return new TransactionStep(name, method, tokens[1], postData, Collections.unmodifiableList(extractions));
+	}
+
+	private static RequestType getMethod(String method) {
+		if ("POST".equalsIgnoreCase(method))
+			return RequestType.POST;
+		if ("HEAD".equalsIgnoreCase(method))
+			return RequestType.HEAD;
+		if ("GET".equalsIgnoreCase(method))
+			return RequestType.GET;
+		return null;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	RequestType getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return the url of this step, relative paths are resolved against the given base url.
+	 */
+	URL getUrl(URL base, Map<String, String> variables) throws MalformedURLException {
+		return new URL(base, replaceVariables(path, variables, true));
+	}
+
+	/**
+	 * @return the form encoded postData of this step; null if no data should be sent.
+	 */
+	String getPostData(Map<String, String> variables) {
+		return postData == null ? null : replaceVariables(postData, variables, false);
+	}
+
+	/**
+	 * @return true if the content of the response is needed to extract variables.
+	 */
+	boolean hasExtractions() {
+		return !extractions.isEmpty();
+	}
+
+	/**
+	 * extracts the variables of this step out of the response content.
+	 *
+	 * @return the name of the first variable which couldn't be extracted; null if all variables were found.
+	 */
+	String extractVariables(CharSequence content, Map<String, String> variables) {
+		for (Extraction extraction : extractions) {
+			Matcher matcher = content == null ? null : extraction.pattern.matcher(content);
+			if (matcher == null || !matcher.find())
+				return extraction.variable;
+			variables.put(extraction.variable, matcher.groupCount() > 0 ? matcher.group(1) : matcher.group());
+		}
+		return null;
+	}
+
+	/**
+	 * @param path true to URL encode the variables for a path or query, false to form encode them.
+	 */
+	private static String replaceVariables(String value, Map<String, String> variables, boolean path) {
+		Matcher matcher = VARIABLE.matcher(value);
+		StringBuffer buf = new StringBuffer();
+		while (matcher.find()) {
+			String replacement = variables.get(matcher.group(1));
+			matcher.appendReplacement(buf, Matcher.quoteReplacement(replacement == null ? "" : encode(replacement, path)));
+		}
+		matcher.appendTail(buf);
+		return buf.toString();
+	}
+
+	private static String encode(String value, boolean path) {
+		String encoded;
+		try {
+			encoded = URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		// a blank is only encoded as + in forms
+		return path ? encoded.replace("+", "%20") : encoded;
+	}
+
+	private static final class Extraction {
+
+		private final String variable;
+		private final Pattern pattern;
+
+		private Extraction(String variable, Pattern pattern) {
+			this.variable = variable;
+			this.pattern = pattern;
+		}
+	}
+}
@@ -1,18 +1,59 @@
 package com.dynatrace.diagnostics.plugin.urlmonitor;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.net.UnknownHostException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
 
 import org.apache.http.Header;
+import org.apache.http.Consts;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.client.AuthCache;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.RedirectException;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.util.InetAddressUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EncodingUtils;
 
 import com.dynatrace.diagnostics.global.Constants;
@@ -25,6 +66,7 @@ import com.dynatrace.diagnostics.httpclient.api.enums.RequestType;
 import com.dynatrace.diagnostics.httpclient.api.enums.SSLCertificateMode;
 import com.dynatrace.diagnostics.httpclient.api.enums.SSLHostnameVerification;
 import com.dynatrace.diagnostics.httpclient.impl.CloseableDynaTraceHttpResponse;
+import com.dynatrace.diagnostics.httpclient.utils.DynaTraceHttpClientUtils;
 import com.dynatrace.diagnostics.pdk.Monitor;
 import com.dynatrace.diagnostics.pdk.MonitorEnvironment;
 import com.dynatrace.diagnostics.pdk.Status;
@@ -41,12 +83,46 @@ public class UrlMonitor implements Monitor {
 	private static final int READ_CHUNK_SIZE = 1024;
 	private static final String HTTP_1_0 = "1.0";
 	private static final int HTTP_CODE_MOVED_PERMANENT = 301;
+	private static final int HTTP_CODE_FOUND = 302;
+	private static final int HTTP_CODE_SEE_OTHER = 303;
+	private static final int HTTP_CODE_NOT_MODIFIED = 304;
+	private static final int HTTP_CODE_TEMPORARY_REDIRECT = 307;
+	private static final int HTTP_CODE_PERMANENT_REDIRECT = 308;
+	private static final int HTTP_CODE_BAD_REQUEST = 400;
+	private static final int TRACE_CAPACITY = 100;
+	/** the time to wait for address probes, if the connection or socket timeout is disabled. */
+	private static final int DEFAULT_PROBE_TIMEOUT = 60000;
+	/** the content type of the form encoded postData of transaction steps. */
+	private static final ContentType FORM_CONTENT_TYPE = ContentType.create(
+			ContentType.APPLICATION_FORM_URLENCODED.getMimeType(), Consts.UTF_8);
+	private static final Logger wireLog = Logger.getLogger("org.apache.http.wire");
 	private Config config;
-	private DynaTraceHttpClient httpClient;
+	private MonitorHttpClient httpClient;
+	/** the client shared with other monitors; null if {@link Config#shareHttpClient} is disabled. */
+	private HttpClientRegistry.SharedClient sharedClient;
+	/** the cookies of this monitor, kept apart from the cookies of other monitors sharing the client. */
+	private final CookieStore cookieStore = new BasicCookieStore();
+	/** the authentication of server and proxy, reused by the following executions of this monitor. */
+	private final AuthCache authCache = new BasicAuthCache();
+	private RequestConfig requestConfig;
+	/** the last executions, logged when the monitor starts failing. */
+	private final ExecutionTrace trace = new ExecutionTrace(TRACE_CAPACITY);
+	private Status.StatusCode lastStatusCode = Status.StatusCode.Success;
+	/** targets of permanent redirects by source url, only used if {@link Config#cachePermanentRedirects} is enabled. */
+	private final Map<String, URL> permanentRedirects = new HashMap<String, URL>();
+	/** the certificate of the server seen by the last execution, only used if {@link Config#measureTls} is enabled. */
+	private X509Certificate serverCertificate;
+	/** the expiry date of {@link #serverCertificate} in milliseconds. */
+	private long certificateNotAfter;
+	/** the local journal of the results; null if {@link Config#useJournal} is disabled. */
+	private ResultJournal journal;
+	/** the baseline of the results; null if {@link Config#adaptive} is disabled. */
+	private AdaptiveBaseline adaptiveBaseline;
 
 	@Override
 	public Status setup(MonitorEnvironment env) throws Exception {
 		Status status = new Status(Status.StatusCode.Success);
+		Config previous = config;
 		try {
 			config = new Config(env);
 		} catch (Exception ex) {
@@ -60,45 +136,156 @@ public class UrlMonitor implements Monitor {
 		}
 
 		try {
-			setupHttpClient();
+			setupJournal();
 		} catch (Exception ex) {
-			log.log(Level.FINE, "setup http client failed", ex);
+			log.log(Level.FINE, "setup journal failed", ex);
 			status.setStatusCode(Status.StatusCode.ErrorInternal);
-			status.setMessage("Setting up HTTP client failed: " + ex.getMessage() + "\nType: " + ex.getClass().getSimpleName() +
+			status.setMessage("Setting up journal failed: " + ex.getMessage() + "\nType: " + ex.getClass().getSimpleName() +
 					"\n");
-			status.setShortMessage("Setting up HTTP client failed: " + ex.getMessage());
+			status.setShortMessage("Setting up journal failed: " + ex.getMessage());
 			status.setException(ex);
 			return status;
 		}
 
-		try {
-			setupAuth(httpClient);
-		} catch (Exception ex) {
-			log.log(Level.FINE, "setup http authentication failed", ex);
-			status.setStatusCode(Status.StatusCode.ErrorInternal);
-			status.setMessage("Setting up HTTP authentication failed: " + ex.getMessage() + "\nType: " +
-					ex.getClass().getSimpleName() + "\n");
-			status.setShortMessage("HTTP authentication setup failed: " + ex.getMessage());
-			status.setException(ex);
-			return status;
+		requestConfig = createRequestConfig();
+		setupAuthCache();
+
+		// the cached redirects and the baseline are only valid for the same requests
+		if (!config.cachePermanentRedirects || previous == null ||
+				!config.getRequestSettings().equals(previous.getRequestSettings()))
+			permanentRedirects.clear();
+		if (!config.adaptive)
+			adaptiveBaseline = null;
+		else if (adaptiveBaseline == null || !config.getRequestSettings().equals(previous.getRequestSettings()))
+			adaptiveBaseline = new AdaptiveBaseline(config.adaptiveFullCheckInterval);
+
+		// setup called again: only rebuild the parts affected by the configuration change, to keep warm connections
+		EnumSet<ConfigChange> changes = EnumSet.allOf(ConfigChange.class);
+		boolean reuseHttpClient = false;
+		if (previous != null && httpClient != null) {
+			changes = config.diff(previous);
+			reuseHttpClient = isHttpClientReusable(changes);
+			log.fine("setup with changed configuration: " + changes + ", reuse http client: " + reuseHttpClient);
+			if (!reuseHttpClient)
+				releaseHttpClient();
 		}
 
-		try {
-			setupProxy(httpClient);
-		} catch (Exception ex) {
-			log.log(Level.FINE, "setup proxy failed", ex);
-			status.setStatusCode(Status.StatusCode.ErrorInternal);
-			status.setMessage("Settingproxy failed: " + ex.getMessage() + "\n");
-			status.setShortMessage("Proxy setup failed: " + ex.getMessage());
-			status.setException(ex);
+		if (config.shareHttpClient) {
+			if (reuseHttpClient)
+				return status;
+			try {
+				setupSharedHttpClient();
+			} catch (Exception ex) {
+				log.log(Level.FINE, "setup shared http client failed", ex);
+				status.setStatusCode(Status.StatusCode.ErrorInternal);
+				status.setMessage("Setting up shared HTTP client failed: " + ex.getMessage() + "\nType: " +
+						ex.getClass().getSimpleName() + "\n");
+				status.setShortMessage("Setting up shared HTTP client failed: " + ex.getMessage());
+				status.setException(ex);
+			}
 			return status;
 		}
 
+		if (!reuseHttpClient) {
+			try {
+				httpClient = createHttpClient();
+			} catch (Exception ex) {
+				log.log(Level.FINE, "setup http client failed", ex);
+				status.setStatusCode(Status.StatusCode.ErrorInternal);
+				status.setMessage("Setting up HTTP client failed: " + ex.getMessage() + "\nType: " + ex.getClass().getSimpleName() +
+						"\n");
+				status.setShortMessage("Setting up HTTP client failed: " + ex.getMessage());
+				status.setException(ex);
+				return status;
+			}
+		}
+
+		if (changes.contains(ConfigChange.auth)) {
+			try {
+				httpClient.getDynaTraceHttpClient().clearUserCredentials();
+				setupAuth(httpClient.getDynaTraceHttpClient());
+			} catch (Exception ex) {
+				log.log(Level.FINE, "setup http authentication failed", ex);
+				status.setStatusCode(Status.StatusCode.ErrorInternal);
+				status.setMessage("Setting up HTTP authentication failed: " + ex.getMessage() + "\nType: " +
+						ex.getClass().getSimpleName() + "\n");
+				status.setShortMessage("HTTP authentication setup failed: " + ex.getMessage());
+				status.setException(ex);
+				return status;
+			}
+		}
+
+		// clearing the user credentials may also drop the proxy credentials
+		if (changes.contains(ConfigChange.proxy) || changes.contains(ConfigChange.auth)) {
+			try {
+				setupProxy(httpClient.getDynaTraceHttpClient());
+			} catch (Exception ex) {
+				log.log(Level.FINE, "setup proxy failed", ex);
+				status.setStatusCode(Status.StatusCode.ErrorInternal);
+				status.setMessage("Settingproxy failed: " + ex.getMessage() + "\n");
+				status.setShortMessage("Proxy setup failed: " + ex.getMessage());
+				status.setException(ex);
+				return status;
+			}
+		}
+
 		return status;
 	}
 
 	@Override
 	public void teardown(MonitorEnvironment env) throws Exception {
+		releaseHttpClient();
+		closeJournal();
+	}
+
+	/**
+	 * opens the journal, if it isn't already open with the configured file and capacity. The file is mapped once here,
+	 * so writing the results in execute doesn't do any file I/O.
+	 */
+	private void setupJournal() throws IOException {
+		if (!config.useJournal) {
+			closeJournal();
+			return;
+		}
+		File file = new File(config.journalFile);
+		if (journal == null || !journal.isOpenedAs(file, config.journalCapacity)) {
+			// releases the lock, the file may be opened again with another capacity
+			closeJournal();
+			journal = ResultJournal.open(file, config.journalCapacity);
+			log.fine("opened journal " + file + " with capacity " + config.journalCapacity);
+		}
+	}
+
+	private void closeJournal() {
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+	}
+
+	/**
+	 * Checks if the current http client can be kept after a configuration change.
+	 *
+	 * @param changes the changed parts of the configuration.
+	 * @return false if the client has to be released and set up again.
+	 */
+	private boolean isHttpClientReusable(EnumSet<ConfigChange> changes) {
+		if (changes.contains(ConfigChange.client))
+			return false;
+		// auth and proxy of a shared client are part of its key
+		if (sharedClient != null)
+			return !changes.contains(ConfigChange.auth) && !changes.contains(ConfigChange.proxy);
+		// a proxy once set can't be removed from the client
+		return !changes.contains(ConfigChange.proxy) || config.useProxy;
+	}
+
+	private void releaseHttpClient() {
+		if (sharedClient != null) {
+			HttpClientRegistry.release(sharedClient);
+			sharedClient = null;
+			httpClient = null;
+			return;
+		}
 		if (httpClient == null)
 			return;
 		httpClient.close();
@@ -108,76 +295,94 @@ public class UrlMonitor implements Monitor {
 	@Override
 	public Status execute(MonitorEnvironment env) throws Exception {
 		// propagate log level for execution, so no collector restart is needed
-		Logger.getLogger("org.apache.http.wire").setLevel(log.getLevel());
+		Level logLevel = log.getLevel();
+		if (wireLog.getLevel() != logLevel)
+			wireLog.setLevel(logLevel);
 
-		//moved from setupHttpClient, so this is executed every time.
-		
-		// set dynaTrace tagging header (only timer name)
-				if (config.tagging) {
-					httpClient.addRequestHeader(Constants.HEADER_DYNATRACE, "NA=" + config.timerName);
-				}
-				
-				//set custom header attributes
-				//added by Robert Khn, T-Systems Multimedia Solutions GmbH, robert.kuehn@t-systems.com
-				if (config.useCustomHeader) {
-					Iterator keySetIterator = config.customHeaderMap.keySet().iterator();
-
-					while(keySetIterator.hasNext()){
-					  String key = (String) keySetIterator.next();
-					  String value = (String) config.customHeaderMap.get(key);
-					  httpClient.addRequestHeader(key, value);
-//					  System.out.println("key: " + key + " value: " + config.customHeaderMap.get(key));
-					}
-				}
-		
+		final long executionStart = System.currentTimeMillis();
 		final Status status = new Status();
 		final MeasureCollector measureCollector = new MeasureCollector(env);
+		Exception failure = null;
 
 		final StringBuilder messageBuffer = new StringBuilder("URL: ");
 		messageBuffer.append(config.url).append("\n");
 
+		// a stable target is only checked with a conditional GET or HEAD, with a full check every few executions
+		int adaptiveMode = adaptiveBaseline == null ? AdaptiveBaseline.MODE_FULL : adaptiveBaseline.nextMode();
+		final Map<String, String> conditions = adaptiveMode == AdaptiveBaseline.MODE_LIGHT
+				? adaptiveBaseline.getConditions() : null;
+		final RequestType method = adaptiveMode == AdaptiveBaseline.MODE_LIGHT && conditions == null ? RequestType.HEAD
+				: config.method;
+
 		CloseableDynaTraceHttpResponse response = null;
+		List<AddressProbe> addressProbes = null;
+		if (sharedClient != null)
+			measureCollector.setSharedClientReferences(sharedClient.getReferences());
+		measureCollector.setPoolStats(httpClient.getPoolStats());
 		try {
-			log.info("Executing method: " + config.method + ", URI: " + config.url + ", with PostData: " +
-					(config.postData != null));
-
-			// connect
-			measureCollector.startMeasurement();
-			if (config.method == RequestType.POST && config.postData != null) {
-				response = httpClient.executeBigRequest(config.method, config.url, null, config.postData,
-						ContentTypeAndEncoding.TEXT_PLAIN_UTF8);
+			InetAddress[] addresses = resolveHost(measureCollector);
+			// the addresses are probed while the request is executed
+			if (config.probeAllAddresses && addresses != null)
+				addressProbes = startAddressProbes(addresses);
+			if (config.connectOnly) {
+				executeConnect(addresses, measureCollector);
+			} else if (config.transactionSteps != null) {
+				failure = executeTransaction(status, measureCollector, messageBuffer);
 			} else {
-				response = httpClient.executeBigRequest(config.method, config.url, null);
-			}
-			// hack to be compatible with earlier versions:
-			if (config.maxRedirects == 0 && response.getStatusCode() == HTTP_CODE_MOVED_PERMANENT)
-				throw new DynaTraceHttpClientException(new ClientProtocolException(
-						"301 redirect reached, but maxRedirect is set to zero."));
-
-			measureCollector.headerResponseReceived();
-			measureCollector.setHttpStatusCode(response.getStatusCode());
-			measureCollector.setHeaderSize(calculateHeaderSize(response));
-			log.fine("http request succeed. code=" + response.getStatusCode());
-
-			// read response data (only if more than the header was requested)
-			if (config.method != RequestType.HEAD) {
-				try {
-					StringBuilder resultContent = loadResultContent(response, measureCollector);
-					verifyResultContent(resultContent, measureCollector, messageBuffer);
-				} catch (IOException e) {
-					log.log(Level.FINE, "reading content failed", e);
-					status.setException(e);
-					status.setStatusCode(Status.StatusCode.PartialSuccess);
-					status.setShortMessage("reading content failed: " + e.getMessage());
-					messageBuffer.append("Error while loading content: ").append(e.getClass().getSimpleName()).append(": ").append(
-							e.getMessage()).append("\n");
+				if (log.isLoggable(Level.FINE))
+					log.fine("Executing method: " + method + ", URI: " + config.url + ", with PostData: " +
+							(config.postData != null));
+
+				// connect
+				measureCollector.startMeasurement();
+				response = executeRequest(method, config.url, config.postData,
+						ContentTypeAndEncoding.TEXT_PLAIN_UTF8.getContentType(), conditions, measureCollector);
+				// hack to be compatible with earlier versions:
+				if (config.maxRedirects == 0 && response.getStatusCode() == HTTP_CODE_MOVED_PERMANENT)
+					throw new DynaTraceHttpClientException(new ClientProtocolException(
+							"301 redirect reached, but maxRedirect is set to zero."));
+
+				measureCollector.headerResponseReceived();
+				measureCollector.setHttpStatusCode(response.getStatusCode());
+				if (log.isLoggable(Level.FINE))
+					log.fine("http request succeed. code=" + response.getStatusCode());
+				// the content changed since the last full check, it was sent and is checked fully
+				if (conditions != null && response.getStatusCode() != HTTP_CODE_NOT_MODIFIED)
+					adaptiveMode = AdaptiveBaseline.MODE_FULL;
+				if (adaptiveBaseline != null && method != RequestType.HEAD && adaptiveMode != AdaptiveBaseline.MODE_LIGHT)
+					adaptiveBaseline.updateValidators(response.getStatusCode(), getHeaderValue(response, "ETag"),
+							getHeaderValue(response, "Last-Modified"), conditions != null);
+				if (measureCollector.getRedirectCount() > 0)
+					messageBuffer.append("Redirected to: ").append(measureCollector.getFinalUrl()).append("\n");
+
+				// read response data (only if more than the header was requested)
+				if (method != RequestType.HEAD && adaptiveMode != AdaptiveBaseline.MODE_LIGHT) {
+					try {
+						JsonValueExtractor jsonExtractor = config.valueExtraction == null ? null
+								: config.valueExtraction.createJsonExtractor();
+						StringBuilder resultContent = loadResultContent(response, measureCollector, isContentLoaded(),
+								jsonExtractor);
+						verifyResultContent(resultContent, measureCollector, messageBuffer);
+						if (config.valueExtraction != null)
+							config.valueExtraction.collectValues(jsonExtractor, resultContent, measureCollector,
+									messageBuffer);
+					} catch (IOException e) {
+						log.log(Level.FINE, "reading content failed", e);
+						failure = e;
+						status.setException(e);
+						status.setStatusCode(Status.StatusCode.PartialSuccess);
+						status.setShortMessage("reading content failed: " + e.getMessage());
+						messageBuffer.append("Error while loading content: ").append(e.getClass().getSimpleName()).append(": ").append(
+								e.getMessage()).append("\n");
+					}
+				} else {
+					measureCollector.loadResponseContentFinished();
 				}
-			} else {
-				measureCollector.loadResponseContentFinished();
+				measureCollector.startClosing();
 			}
-			measureCollector.startClosing();
 		} catch (DynaTraceHttpClientException e) {
 			log.log(Level.FINE, "executing request failed", e);
+			failure = e;
 			status.setException(e);
 			status.setStatusCode(Status.StatusCode.PartialSuccess);
 			messageBuffer.append("Connection failed: ").append(e.getClass().getSimpleName()).append(": ").append(
@@ -188,6 +393,9 @@ public class UrlMonitor implements Monitor {
 				status.setShortMessage(e.getCause().getClass().getSimpleName() + ": " + e.getCause().getMessage());
 				if (e.getCause() instanceof SSLException) {
 					messageBuffer.append("SSL handshake failed, this may be caused by an incorrect certificate. Check 'Disable certificate validation' parameter to override this.\n");
+				} else if (e.getCause() instanceof ConnectionPoolTimeoutException) {
+					// the server wasn't connected at all, all connections of the pool were in use
+					messageBuffer.append("No connection of the HTTP client's pool became available, the pool is exhausted by the monitors sharing it.\n");
 				} else if (e.getCause() instanceof ConnectTimeoutException) {
 					measureCollector.setConnectionTimedOut();
 				} else if (e.getCause() instanceof SocketTimeoutException) {
@@ -203,21 +411,583 @@ public class UrlMonitor implements Monitor {
 			measureCollector.closingFinished();
 		}
 
+		// the results of the addresses are independent of the request
+		if (addressProbes != null) {
+			collectAddressProbes(addressProbes, measureCollector, messageBuffer);
+			measureCollector.applyAddressMeasuresToEnvironment();
+		}
+		if (adaptiveBaseline != null) {
+			measureCollector.setAdaptiveMode(adaptiveMode);
+			if (adaptiveBaseline.update(adaptiveMode, status.getStatusCode(), measureCollector)) {
+				log.fine("Adaptive mode: deviation from baseline, escalating to full checks");
+				messageBuffer.append("Deviation from baseline, escalating to full checks\n");
+			}
+		}
 		measureCollector.applyBinaryMeasuresToEnvironment();
 		if (status.getStatusCode() == Status.StatusCode.Success)
 			measureCollector.applyMeasuresToEnvironment();
 
+		trace.record(executionStart, measureCollector, failure);
+		if (journal != null)
+			journal.append(executionStart, status.getStatusCode(), measureCollector);
+		// log the trace once when the monitor starts failing, further failures only with log level FINE
+		Level traceLevel = lastStatusCode == Status.StatusCode.Success ? Level.INFO : Level.FINE;
+		if (status.getStatusCode() != Status.StatusCode.Success && log.isLoggable(traceLevel)) {
+			StringBuilder traceBuffer = new StringBuilder("URL Monitor for ").append(config.url).append(
+					" failed, last executions:\n");
+			trace.dump(traceBuffer);
+			log.log(traceLevel, traceBuffer.toString());
+		}
+		lastStatusCode = status.getStatusCode();
+
 		status.setMessage(messageBuffer.toString());
 		return status;
 	}
 
+	/**
+	 * resolves the host of the url through the shared {@link DnsCache} before the request is sent, so the lookup time is
+	 * measured separately. The client resolves the host through the same cache, so the request is sent to these addresses,
+	 * falling back to the next address if one can't be connected. Hosts given as IP address aren't resolved, neither are
+	 * hosts requested via proxy, which are resolved by the proxy.
+	 *
+	 * @return the addresses of the host; null if the host wasn't resolved.
+	 */
+	private InetAddress[] resolveHost(MeasureCollector measureCollector) throws DynaTraceHttpClientException {
+		String host = config.url.getHost();
+		if (config.useProxy || host.isEmpty() || InetAddressUtils.isIPv4Address(host) || host.startsWith("["))
+			return null;
+		long lookupStart = System.nanoTime();
+		InetAddress[] addresses;
+		try {
+			if (config.coldDns) {
+				addresses = DnsCache.SHARED.resolveUncached(host);
+			} else {
+				addresses = DnsCache.SHARED.resolve(host, config.dnsCacheTtl);
+			}
+		} catch (UnknownHostException e) {
+			throw new DynaTraceHttpClientException(e);
+		}
+		measureCollector.setDnsLookupTime(System.nanoTime() - lookupStart);
+		return addresses;
+	}
+
+	/**
+	 * adds the time to connect to the proxy, to set up the tunnel and the response time of the origin server to the
+	 * measure collector. Connect and tunnel are only known for requests sent on a new connection, pooled connections
+	 * keep their tunnel.
+	 */
+	private static void collectProxyResults(Exchange exchange, MeasureCollector measureCollector) {
+		if (exchange.getConnectTime() >= 0)
+			measureCollector.setProxyConnectTime(exchange.getConnectTime());
+		if (exchange.getTunnelTime() >= 0)
+			measureCollector.setProxyTunnelTime(exchange.getTunnelTime());
+		measureCollector.setOriginResponseTime(exchange.getResponseTime());
+	}
+
+	/**
+	 * adds the handshake and the certificate of the request to the measure collector. The handshake is only known for
+	 * requests sent on a new connection.
+	 */
+	private void collectTlsResults(Exchange exchange, MeasureCollector measureCollector) {
+		if (exchange.getSslSession() == null)
+			return;
+		if (exchange.isTlsHandshaked())
+			measureCollector.setTlsHandshake(exchange.getTlsHandshakeTime(), exchange.isTlsSessionResumed());
+		try {
+			collectCertificate(exchange.getSslSession(), measureCollector);
+		} catch (SSLPeerUnverifiedException e) {
+			log.log(Level.FINE, "certificate of the server not available", e);
+		}
+	}
+
+	/**
+	 * adds the expiry of the server certificate to the measure collector. The certificate is only inspected if it
+	 * differs from the one seen by the last execution.
+	 */
+	private void collectCertificate(SSLSession session, MeasureCollector measureCollector)
+			throws SSLPeerUnverifiedException {
+		Certificate[] certificates = session.getPeerCertificates();
+		X509Certificate certificate = certificates.length == 0 || !(certificates[0] instanceof X509Certificate) ? null
+				: (X509Certificate) certificates[0];
+		if (certificate != null && !certificate.equals(serverCertificate)) {
+			serverCertificate = certificate;
+			certificateNotAfter = certificate.getNotAfter().getTime();
+			if (log.isLoggable(Level.FINE))
+				log.fine("Certificate of " + config.url.getHost() + " changed: " + certificate.getSubjectX500Principal() +
+						", expires " + certificate.getNotAfter());
+		}
+		if (serverCertificate != null)
+			measureCollector.setCertificateExpiry(certificateNotAfter - System.currentTimeMillis());
+	}
+
+	/**
+	 * only connects to the host, including the TLS handshake for https, and closes the connection again without sending
+	 * a request. The response complete time covers connect and handshake.
+	 *
+	 * @param addresses the resolved addresses of the host; null if the host wasn't resolved.
+	 */
+	private void executeConnect(InetAddress[] addresses, MeasureCollector measureCollector) throws IOException {
+		String host = getHostName(config.url);
+		InetAddress address;
+		try {
+			address = addresses == null ? InetAddress.getByName(host) : addresses[0];
+		} catch (UnknownHostException e) {
+			throw new DynaTraceHttpClientException(e);
+		}
+		int port = getPort(config.url);
+		if (log.isLoggable(Level.FINE))
+			log.fine("Connecting to " + address + ":" + port);
+
+		Socket socket = new Socket();
+		TlsProbe probe = null;
+		try {
+			measureCollector.startMeasurement();
+			long connectStart = System.nanoTime();
+			try {
+				socket.connect(new InetSocketAddress(address, port), config.connectionTimeout);
+			} catch (SocketTimeoutException e) {
+				ConnectTimeoutException timeout = new ConnectTimeoutException("Connect to " + address + ":" + port +
+						" timed out");
+				timeout.initCause(e);
+				throw new DynaTraceHttpClientException(timeout);
+			} catch (IOException e) {
+				throw new DynaTraceHttpClientException(e);
+			}
+			measureCollector.setConnectTime(System.nanoTime() - connectStart);
+			if ("https".equals(config.url.getProtocol())) {
+				socket.setSoTimeout(config.socketTimeout);
+				try {
+					probe = TlsProbe.handshake(socket, host, port, httpClient.getDynaTraceHttpClient());
+				} catch (IOException e) {
+					throw new DynaTraceHttpClientException(e);
+				}
+				measureCollector.loadResponseContentFinished();
+				measureCollector.setTlsHandshake(probe.getHandshakeTime(), probe.isResumed());
+				collectCertificate(probe.getSocket().getSession(), measureCollector);
+				probe.readSessionTicket();
+			} else {
+				measureCollector.loadResponseContentFinished();
+			}
+			measureCollector.startClosing();
+		} finally {
+			if (probe != null)
+				probe.close();
+			else
+				socket.close();
+		}
+	}
+
+	/**
+	 * starts probing each address of the host on a connection of its own. POST requests are probed with HEAD, to not
+	 * send the data to every address, for Connect only the addresses are only connected.
+	 *
+	 * @return the running probes.
+	 */
+	private List<AddressProbe> startAddressProbes(InetAddress[] addresses) {
+		String method = config.method == RequestType.POST ? RequestType.HEAD.name() : config.method.name();
+		if (config.connectOnly)
+			method = null;
+		Map<String, String> headers = getRequestHeaders();
+		headers.put("User-Agent", config.userAgent);
+		List<AddressProbe> probes = new ArrayList<AddressProbe>(addresses.length);
+		for (InetAddress address : addresses)
+			probes.add(new AddressProbe(address, config.url, method, headers, httpClient.getDynaTraceHttpClient(),
+					config.connectionTimeout, config.socketTimeout));
+		AddressProbe.start(probes);
+		return probes;
+	}
+
+	/**
+	 * waits for the address probes and adds their results to the measure collector.
+	 */
+	private void collectAddressProbes(List<AddressProbe> addressProbes, MeasureCollector measureCollector,
+			StringBuilder messageBuffer) throws InterruptedException {
+		// a probe may take as long as the request to connect and to respond
+		int timeout = config.connectionTimeout + config.socketTimeout;
+		if (config.connectionTimeout == 0 || config.socketTimeout == 0)
+			timeout = DEFAULT_PROBE_TIMEOUT;
+		AddressProbe.await(addressProbes, timeout);
+		for (AddressProbe probe : addressProbes) {
+			String address = probe.getAddress().getHostAddress();
+			measureCollector.addAddressResult(address, probe.getHttpStatusCode(), probe.getFirstResponseTime(),
+					probe.isFailed());
+			if (probe.getError() != null) {
+				messageBuffer.append("Address ").append(address).append(" failed: ").append(
+						probe.getError().getClass().getSimpleName()).append(": ").append(probe.getError().getMessage())
+						.append("\n");
+			} else if (probe.isFailed()) {
+				messageBuffer.append("Address ").append(address).append(" responded with HTTP status code ").append(
+						probe.getHttpStatusCode()).append("\n");
+			}
+		}
+	}
+
+	/**
+	 * @return the host of the url, IPv6 addresses without brackets.
+	 */
+	static String getHostName(URL url) {
+		String host = url.getHost();
+		if (host.startsWith("[") && host.endsWith("]"))
+			return host.substring(1, host.length() - 1);
+		return host;
+	}
+
+	/**
+	 * @return the port of the url, the default port of the protocol if the url doesn't specify one.
+	 */
+	static int getPort(URL url) {
+		return url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+	}
+
+	/**
+	 * executes the steps of the configured transaction one after another on the same client, so cookies and connections
+	 * are reused by the steps. The measures of the collector cover the whole transaction, the content of the last step
+	 * is verified.
+	 *
+	 * @return the exception loading the content of a step failed with; null if no content failed to load.
+	 */
+	private IOException executeTransaction(Status status, MeasureCollector measureCollector, StringBuilder messageBuffer)
+			throws IOException {
+		Map<String, String> variables = new HashMap<String, String>();
+		// every transaction starts with a new session
+		cookieStore.clear();
+		measureCollector.startMeasurement();
+		for (int i = 0; i < config.transactionSteps.size(); i++) {
+			TransactionStep step = config.transactionSteps.get(i);
+			boolean lastStep = i == config.transactionSteps.size() - 1;
+			URL url;
+			try {
+				url = step.getUrl(config.url, variables);
+			} catch (MalformedURLException e) {
+				throw new DynaTraceHttpClientException("Invalid url in step " + step.getName(), e);
+			}
+			String postData = step.getPostData(variables);
+			messageBuffer.append(step.getName()).append(": ").append(step.getMethod()).append(" ").append(url).append("\n");
+			if (log.isLoggable(Level.FINE))
+				log.fine("Executing step " + step.getName() + ": " + step.getMethod() + ", URI: " + url +
+						", with PostData: " + (postData != null));
+
+			CloseableDynaTraceHttpResponse response = null;
+			try {
+				long stepStart = System.nanoTime();
+				long poolWaitTime = measureCollector.getPoolWaitTime();
+				response = executeRequest(step.getMethod(), url, postData, FORM_CONTENT_TYPE, null, measureCollector);
+				// the time waited for a connection of the pool isn't part of the step
+				stepStart += measureCollector.getPoolWaitTime() - poolWaitTime;
+				long firstResponseTime = System.nanoTime() - stepStart;
+				if (i == 0)
+					measureCollector.headerResponseReceived();
+				measureCollector.setHttpStatusCode(response.getStatusCode());
+
+				int inputSize = measureCollector.getInputSize();
+				StringBuilder resultContent = null;
+				// values are extracted out of the last step only
+				JsonValueExtractor jsonExtractor = null;
+				if (lastStep && config.valueExtraction != null)
+					jsonExtractor = config.valueExtraction.createJsonExtractor();
+				if (step.getMethod() != RequestType.HEAD) {
+					try {
+						resultContent = loadResultContent(response, measureCollector,
+								step.hasExtractions() || (lastStep && isContentLoaded()), jsonExtractor);
+					} catch (IOException e) {
+						log.log(Level.FINE, "reading content failed", e);
+						status.setException(e);
+						status.setStatusCode(Status.StatusCode.PartialSuccess);
+						status.setShortMessage("reading content of step " + step.getName() + " failed: " + e.getMessage());
+						messageBuffer.append("Error while loading content: ").append(e.getClass().getSimpleName()).append(
+								": ").append(e.getMessage()).append("\n");
+						return e;
+					}
+				} else {
+					measureCollector.loadResponseContentFinished();
+				}
+				measureCollector.addStepResult(step.getName(), response.getStatusCode(), firstResponseTime,
+						System.nanoTime() - stepStart, measureCollector.getInputSize() - inputSize);
+
+				String missingVariable = step.extractVariables(resultContent, variables);
+				if (missingVariable != null) {
+					status.setStatusCode(Status.StatusCode.PartialSuccess);
+					status.setShortMessage("Value for " + missingVariable + " not found in step " + step.getName());
+					messageBuffer.append("Value for ").append(missingVariable).append(" not found in response of step ")
+							.append(step.getName()).append(", HTTP status code: ").append(response.getStatusCode())
+							.append("\n");
+					return null;
+				}
+				if (lastStep && step.getMethod() != RequestType.HEAD) {
+					verifyResultContent(resultContent, measureCollector, messageBuffer);
+					if (config.valueExtraction != null)
+						config.valueExtraction.collectValues(jsonExtractor, resultContent, measureCollector,
+								messageBuffer);
+				}
+			} finally {
+				if (lastStep)
+					measureCollector.startClosing();
+				if (response != null)
+					response.close();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * executes the request and follows redirects hop by hop up to {@link Config#maxRedirects}, so the time of every hop
+	 * is measured. If {@link Config#cachePermanentRedirects} is enabled, the targets of permanent redirects are requested
+	 * directly by later executions. A redirect still pending after {@link Config#maxRedirects} hops fails the request,
+	 * only with redirects disabled the redirect itself is returned.
+	 *
+	 * @param contentType the content type of the postData.
+	 * @param conditions the headers making the request conditional; null if unconditional.
+	 * @return the response of the last hop.
+	 */
+	private CloseableDynaTraceHttpResponse executeRequest(RequestType method, URL url, String postData,
+			ContentType contentType, Map<String, String> conditions, MeasureCollector measureCollector)
+			throws IOException {
+		URL requestUrl = getPermanentRedirectTarget(url);
+		for (int redirects = 0;; redirects++) {
+			HttpRequestBase request = createRequest(method, requestUrl, postData, contentType);
+			if (conditions != null) {
+				for (Map.Entry<String, String> header : conditions.entrySet())
+					request.setHeader(header.getKey(), header.getValue());
+			}
+			HttpClientContext context = createContext();
+			long hopStart = System.nanoTime();
+			CloseableDynaTraceHttpResponse response;
+			try {
+				response = sendRequest(requestUrl, request, context);
+			} catch (IOException e) {
+				permanentRedirects.clear();
+				throw e;
+			} finally {
+				measureCollector.addPoolWaitTime(Exchange.get(context).getLeaseTime());
+			}
+			measureCollector.addRedirectHop(requestUrl, System.nanoTime() - hopStart
+					- Exchange.get(context).getLeaseTime());
+			// the TLS connection of the first request sent with TLS
+			if (config.measureTls && !measureCollector.isCertificateMeasured())
+				collectTlsResults(Exchange.get(context), measureCollector);
+			if (config.measureProxy && !measureCollector.isOriginResponded())
+				collectProxyResults(Exchange.get(context), measureCollector);
+			// sizes of all hops, counted on the connection until the response is closed
+			measureCollector.addExchange(Exchange.get(context));
+
+			int statusCode = response.getStatusCode();
+			URL location = config.maxRedirects > 0 ? getRedirectLocation(method, requestUrl, response) : null;
+			if (location != null && redirects == config.maxRedirects) {
+				discardContent(response);
+				permanentRedirects.clear();
+				RedirectException e = new RedirectException("Maximum redirects (" + config.maxRedirects + ") exceeded");
+				throw new DynaTraceHttpClientException(new ClientProtocolException(e.getMessage(), e));
+			}
+			if (location == null) {
+				// don't stick to a cached target, which doesn't work anymore
+				if (statusCode >= HTTP_CODE_BAD_REQUEST)
+					permanentRedirects.clear();
+				measureCollector.addRedirectCount(redirects);
+				return response;
+			}
+			discardContent(response);
+			if (config.cachePermanentRedirects && isPermanentRedirect(statusCode) &&
+					(method == RequestType.GET || method == RequestType.HEAD))
+				permanentRedirects.put(requestUrl.toString(), location);
+			if (statusCode == HTTP_CODE_SEE_OTHER && method != RequestType.HEAD) {
+				method = RequestType.GET;
+				postData = null;
+			}
+			requestUrl = location;
+		}
+	}
+
+	/**
+	 * creates the request the same way the http client does, but with the request headers of this monitor, so the
+	 * client can be shared by monitors without synchronization.
+	 */
+	private HttpRequestBase createRequest(RequestType method, URL url, String postData, ContentType contentType)
+			throws DynaTraceHttpClientException {
+		HttpRequestBase request = method.createRequest();
+		try {
+			request.setURI(DynaTraceHttpClientUtils.buildURI(url, null));
+		} catch (URISyntaxException e) {
+			throw new DynaTraceHttpClientException("Exception was thrown while executing a HTTP request", e);
+		}
+		request.setProtocolVersion(HTTP_1_0.equals(config.httpVersion) ? HttpVersion.HTTP_1_0 : HttpVersion.HTTP_1_1);
+		request.setConfig(requestConfig);
+		if (method == RequestType.POST && postData != null)
+			((HttpPost) request).setEntity(new StringEntity(postData, contentType));
+		for (Map.Entry<String, String> header : getRequestHeaders().entrySet())
+			request.addHeader(header.getKey(), header.getValue());
+		return request;
+	}
+
+	/**
+	 * @return a context holding the cookies and the authentication of this monitor.
+	 */
+	private HttpClientContext createContext() {
+		HttpClientContext context = HttpClientContext.create();
+		context.setCookieStore(cookieStore);
+		context.setAuthCache(authCache);
+		return context;
+	}
+
+	/**
+	 * sends the request with the thread safe http client.
+	 */
+	private CloseableDynaTraceHttpResponse sendRequest(URL url, HttpRequestBase request, HttpClientContext context)
+			throws DynaTraceHttpClientException {
+		try {
+			CloseableHttpResponse response = httpClient.execute(getTarget(url), request, context);
+			try {
+				return new CloseableDynaTraceHttpResponse(httpClient.getDynaTraceHttpClient(), response);
+			} catch (IOException e) {
+				response.close();
+				throw e;
+			}
+		} catch (IOException e) {
+			throw new DynaTraceHttpClientException("Exception was thrown while executing a HTTP request", e);
+		}
+	}
+
+	/**
+	 * @return the host the request is sent to, with an explicit port, so cached authentication is found again.
+	 */
+	private static HttpHost getTarget(URL url) {
+		return new HttpHost(url.getHost(), getPort(url), url.getProtocol());
+	}
+
+	/**
+	 * @return the same request configuration as the http client uses, see {@link #createHttpClient()}.
+	 */
+	private RequestConfig createRequestConfig() {
+		List<String> authSchemes = Arrays.asList(AuthSchemes.BASIC, AuthSchemes.DIGEST, AuthSchemes.NTLM);
+		RequestConfig.Builder builder = RequestConfig.custom()
+				.setCookieSpec(CookieSpecs.BEST_MATCH)
+				.setExpectContinueEnabled(true)
+				.setTargetPreferredAuthSchemes(authSchemes)
+				.setProxyPreferredAuthSchemes(authSchemes)
+				// redirects are followed by executeRequest, to measure each hop
+				.setRedirectsEnabled(false)
+				.setMaxRedirects(0)
+				.setSocketTimeout(config.socketTimeout)
+				.setConnectTimeout(config.connectionTimeout)
+				.setConnectionRequestTimeout(config.connectionTimeout);
+		if (config.useProxy)
+			builder.setProxy(new HttpHost(config.proxyHost, config.proxyPort));
+		return builder.build();
+	}
+
+	/**
+	 * forgets the authentication of earlier executions and enables preemptive basic authentication, which would be
+	 * added by the http client to its own requests.
+	 */
+	private void setupAuthCache() {
+		authCache.clear();
+		if (config.serverAuth == AuthMethod.basic && config.serverAuthPreemptive)
+			authCache.put(getTarget(config.url), new BasicScheme());
+		if (config.useProxy && config.proxyAuth && config.proxyAuthPreemptive)
+			authCache.put(new HttpHost(config.proxyHost, config.proxyPort), createProxyBasicScheme());
+	}
+
+	/**
+	 * @return a basic scheme answering the challenges of a proxy.
+	 */
+	private static BasicScheme createProxyBasicScheme() {
+		BasicScheme scheme = new BasicScheme();
+		try {
+			// the scheme only remembers, that it was challenged by a proxy
+			scheme.processChallenge(new BasicHeader(AUTH.PROXY_AUTH, AuthSchemes.BASIC));
+		} catch (MalformedChallengeException e) {
+			throw new IllegalStateException(e);
+		}
+		return scheme;
+	}
+
+	/**
+	 * @return the value of the response header; null if not sent.
+	 */
+	private static String getHeaderValue(CloseableDynaTraceHttpResponse response, String name) {
+		Header header = response.getResponseHeader(name);
+		return header == null ? null : header.getValue();
+	}
+
+	/**
+	 * @return the url the response redirects to; null if the response is no redirect, which should be followed.
+	 */
+	private URL getRedirectLocation(RequestType method, URL url, CloseableDynaTraceHttpResponse response)
+			throws DynaTraceHttpClientException {
+		int statusCode = response.getStatusCode();
+		// like the redirect strategy of the http client only see other redirects POST requests, in addition 308 (RFC 7538)
+		// is followed like 301
+		boolean redirect = statusCode == HTTP_CODE_SEE_OTHER || ((method == RequestType.GET || method == RequestType.HEAD) &&
+				(statusCode == HTTP_CODE_FOUND || statusCode == HTTP_CODE_TEMPORARY_REDIRECT || isPermanentRedirect(statusCode)));
+		if (!redirect)
+			return null;
+		Header location = response.getResponseHeader("Location");
+		if (location == null)
+			return null;
+		try {
+			return new URL(url, location.getValue());
+		} catch (MalformedURLException e) {
+			throw new DynaTraceHttpClientException(new ClientProtocolException("Invalid redirect location: " +
+					location.getValue(), e));
+		}
+	}
+
+	private static boolean isPermanentRedirect(int statusCode) {
+		return statusCode == HTTP_CODE_MOVED_PERMANENT || statusCode == HTTP_CODE_PERMANENT_REDIRECT;
+	}
+
+	/**
+	 * @return the cached target of permanent redirects for the given url; the url itself if no redirect is cached.
+	 */
+	private URL getPermanentRedirectTarget(URL url) {
+		if (!config.cachePermanentRedirects)
+			return url;
+		URL target = url;
+		URL cached;
+		// limited like followed redirects, to break cycles
+		for (int i = 0; i < config.maxRedirects && (cached = permanentRedirects.get(target.toString())) != null; i++)
+			target = cached;
+		return target;
+	}
+
+	/**
+	 * reads the remaining content of a response, which is not needed, so the connection can be reused.
+	 */
+	private void discardContent(CloseableDynaTraceHttpResponse response) throws DynaTraceHttpClientException {
+		try {
+			try {
+				InputStream inputStream = response.getResponseBody();
+				if (inputStream != null) {
+					byte[] data = new byte[READ_CHUNK_SIZE];
+					while (inputStream.read(data) >= 0) {
+						// discard
+					}
+					inputStream.close();
+				}
+			} finally {
+				response.close();
+			}
+		} catch (IOException e) {
+			throw new DynaTraceHttpClientException("Exception was thrown while reading a redirect response", e);
+		}
+	}
+
+	/**
+	 * @return true if the content has to be loaded to match it against the search string or to extract values by regex.
+	 */
+	private boolean isContentLoaded() {
+		return (config.matchContent != MatchContent.disabled && config.matchContent != MatchContent.bytesMatch) ||
+				(config.valueExtraction != null && config.valueExtraction.hasPatterns());
+	}
+
 	/**
 	 * loads the whole content out of the http response.
 	 *
-	 * @return null if there was no content in the http response OR config parameter contentMatch is disabled OR contentMatch is
-	 *         bytesMatch.
+	 * @param keepContent true if the content should be returned, false if only the size should be measured.
+	 * @param jsonExtractor the content is streamed through; may be null.
+	 * @return null if there was no content in the http response OR keepContent is false.
 	 */
-	private StringBuilder loadResultContent(CloseableDynaTraceHttpResponse response, MeasureCollector measureCollector) throws IOException {
+	private StringBuilder loadResultContent(CloseableDynaTraceHttpResponse response, MeasureCollector measureCollector,
+			boolean keepContent, JsonValueExtractor jsonExtractor) throws IOException {
 		InputStream inputStream = response.getResponseBody();
 		if (inputStream == null) {
 			return null;
@@ -227,14 +997,18 @@ public class UrlMonitor implements Monitor {
 		String charset = response.getCharset();
 		StringBuilder buf = new StringBuilder();
 		while ((bytesRead = inputStream.read(data)) > 0) {
-			if (config.matchContent != MatchContent.disabled && config.matchContent != MatchContent.bytesMatch) {
-				buf.append(EncodingUtils.getString(data, 0, bytesRead, charset));
+			if (keepContent || jsonExtractor != null) {
+				String chunk = EncodingUtils.getString(data, 0, bytesRead, charset);
+				if (keepContent)
+					buf.append(chunk);
+				if (jsonExtractor != null)
+					jsonExtractor.feed(chunk);
 			}
 			measureCollector.incrementInputSize(bytesRead);
 		}
 		inputStream.close();
 		measureCollector.loadResponseContentFinished();
-		if (config.matchContent != MatchContent.disabled && config.matchContent != MatchContent.bytesMatch) {
+		if (keepContent) {
 			return buf;
 		} else {
 			return null;
@@ -310,7 +1084,55 @@ public class UrlMonitor implements Monitor {
 		}
 	}
 
-	private void setupHttpClient() {
+	/**
+	 * @return the headers sent with every request: the dynaTrace tagging header and the custom headers.
+	 */
+	private Map<String, String> getRequestHeaders() {
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		// set dynaTrace tagging header (only timer name)
+		if (config.tagging) {
+			headers.put(Constants.HEADER_DYNATRACE, "NA=" + config.timerName);
+		}
+
+		//set custom header attributes
+		//added by Robert Khn, T-Systems Multimedia Solutions GmbH, robert.kuehn@t-systems.com
+		if (config.useCustomHeader) {
+			Iterator keySetIterator = config.customHeaderMap.keySet().iterator();
+
+			while(keySetIterator.hasNext()){
+			  String key = (String) keySetIterator.next();
+			  String value = (String) config.customHeaderMap.get(key);
+			  headers.put(key, value);
+			}
+		}
+		return headers;
+	}
+
+	/**
+	 * acquires a client from the {@link HttpClientRegistry}, which is shared with all monitors using the same client
+	 * settings.
+	 */
+	private void setupSharedHttpClient() throws Exception {
+		sharedClient = HttpClientRegistry.acquire(new HttpClientRegistry.ClientKey(config),
+				new HttpClientRegistry.ClientFactory() {
+
+					@Override
+					public MonitorHttpClient create() throws Exception {
+						MonitorHttpClient client = createHttpClient();
+						try {
+							setupAuth(client.getDynaTraceHttpClient());
+							setupProxy(client.getDynaTraceHttpClient());
+						} catch (Exception ex) {
+							client.close();
+							throw ex;
+						}
+						return client;
+					}
+				});
+		httpClient = sharedClient.getHttpClient();
+	}
+
+	private MonitorHttpClient createHttpClient() throws SSLException {
 		DynaTraceHttpClientBuilder builder = new DynaTraceHttpClientBuilder();
 		if (config.ignorecert) {
 			builder.certificateMode(SSLCertificateMode.TRUST_ALL);
@@ -326,17 +1148,14 @@ public class UrlMonitor implements Monitor {
 			builder.protocolVersion("HTTP", 1, 1);
 		}
 
-		if (config.maxRedirects > 0) {
-			builder.allowRedirects(true).maxRedirects(config.maxRedirects);
-		} else {
-			builder.allowRedirects(false).maxRedirects(0);
-		}
+		// redirects are followed by executeRequest, to measure each hop
+		builder.allowRedirects(false).maxRedirects(0);
 
 		builder.userAgent(config.userAgent);
 		builder.socketTimeout(config.socketTimeout);
 		builder.connectTimeout(config.connectionTimeout);
 		builder.connectionRequestTimeout(config.connectionTimeout);
-		httpClient = builder.build();
+		DynaTraceHttpClient httpClient = builder.build();
 
 		//removed by Robert Khn
 		//this snippet will only be executed, the first time the monitor runs
@@ -357,14 +1176,11 @@ public class UrlMonitor implements Monitor {
 ////			  System.out.println("key: " + key + " value: " + config.customHeaderMap.get(key));
 //			}
 //		}
-	}
-
-	private int calculateHeaderSize(CloseableDynaTraceHttpResponse response) {
-		int headerLength = 0;
-		for (Header header : response.getResponseHeaders()) {
-			headerLength += header.getName().getBytes().length;
-			headerLength += header.getValue().getBytes().length;
+		try {
+			return new MonitorHttpClient(httpClient);
+		} catch (SSLException e) {
+			httpClient.close();
+			throw e;
 		}
-		return headerLength;
 	}
 }
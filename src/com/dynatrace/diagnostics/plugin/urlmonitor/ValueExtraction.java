@@ -0,0 +1,122 @@
+/***************************************************
+ * dynaTrace Diagnostics (c) dynaTrace software GmbH
+ *
+ * @file: ValueExtraction.java
+ */
+package com.dynatrace.diagnostics.plugin.urlmonitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Extractions of numeric values out of the response content, which are published as dynamic measures. Extractions are
+ * configured one per line as <code>name=expression</code>. Expressions starting with <code>$</code> are JSON paths (see
+ * {@link JsonValueExtractor}), any other expression is a regex, whose first group (or the whole match if it has no group)
+ * is parsed as number.
+ */
+final class ValueExtraction {
+
+	private final List<String> names;
+	private final List<String> jsonPaths;
+	private final List<String> patternNames;
+	private final List<Pattern> patterns;
+
+	private ValueExtraction(List<String> names, List<String> jsonPaths, List<String> patternNames, List<Pattern> patterns) {
+		this.names = names;
+		this.jsonPaths = jsonPaths;
+		this.patternNames = patternNames;
+		this.patterns = patterns;
+	}
+
+	/**
+	 * parses the configured extractions, empty lines are ignored.
+	 *
+	 * @throws IllegalArgumentException if an extraction has an invalid format.
+	 */
+	static ValueExtraction parse(String extractions) {
+		List<String> names = new ArrayList<String>();
+		List<String> jsonPaths = new ArrayList<String>();
+		List<String> patternNames = new ArrayList<String>();
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		for (String line : extractions.split("\r?\n")) {
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
+			int separator = line.indexOf('=');
+			if (separator < 1)
+				throw new IllegalArgumentException("Invalid value extraction: " + line + ", expected format: name=expression");
+			String name = line.substring(0, separator).trim();
+			String expression = line.substring(separator + 1).trim();
+			if (expression.startsWith("$")) {
+				names.add(name);
+				jsonPaths.add(expression);
+			} else {
+				try {
+					patterns.add(Pattern.compile(expression));
+				} catch (PatternSyntaxException e) {
+					throw new IllegalArgumentException("Invalid regex for value " + name + ": " + e.getMessage(), e);
+				}
+				patternNames.add(name);
+			}
+		}
+		return new ValueExtraction(Collections.unmodifiableList(names), Collections.unmodifiableList(jsonPaths),
+				Collections.unmodifiableList(patternNames), Collections.unmodifiableList(patterns));
+	}
+
+	/**
+	 * @return a new extractor for the JSON paths of this extraction; null if no JSON path is configured.
+	 */
+	JsonValueExtractor createJsonExtractor() {
+		return jsonPaths.isEmpty() ? null : new JsonValueExtractor(jsonPaths);
+	}
+
+	/**
+	 * @return true if the content has to be loaded to apply the regex extractions.
+	 */
+	boolean hasPatterns() {
+		return !patterns.isEmpty();
+	}
+
+	/**
+	 * adds the extracted values to the measure collector.
+	 *
+	 * @param jsonExtractor the extractor the content was streamed through; may be null.
+	 * @param content the loaded content; may be null, if no regex is configured.
+	 * @param messageBuffer receives the names of values which weren't found.
+	 */
+	void collectValues(JsonValueExtractor jsonExtractor, CharSequence content, MeasureCollector measureCollector,
+			StringBuilder messageBuffer) {
+		if (jsonExtractor != null) {
+			jsonExtractor.finish();
+			for (int i = 0; i < names.size(); i++) {
+				if (jsonExtractor.isFound(i)) {
+					measureCollector.addExtractedValue(names.get(i), jsonExtractor.getValue(i));
+				} else {
+					messageBuffer.append("Value ").append(names.get(i)).append(" not found: ").append(jsonPaths.get(i))
+							.append("\n");
+				}
+			}
+		}
+		for (int i = 0; i < patterns.size(); i++) {
+			Matcher matcher = content == null ? null : patterns.get(i).matcher(content);
+			String value = null;
+			if (matcher != null && matcher.find())
+				value = matcher.groupCount() > 0 ? matcher.group(1) : matcher.group();
+			if (value == null) {
+				messageBuffer.append("Value ").append(patternNames.get(i)).append(" not found: ").append(patterns.get(i))
+						.append("\n");
+				continue;
+			}
+			try {
+				measureCollector.addExtractedValue(patternNames.get(i), Double.parseDouble(value.trim()));
+			} catch (NumberFormatException e) {
+				messageBuffer.append("Value ").append(patternNames.get(i)).append(" is not a number: ").append(value)
+						.append("\n");
+			}
+		}
+	}
+}